@@ -0,0 +1,282 @@
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * A front end to a ContactManager whose methods return at once with a CompletableFuture, so that callers never
+ * block on disk I/O.
+ * @author Sophie Koonin
+ * @see ConcurrentContactManager
+ *
+ * Calls are passed on to a ConcurrentContactManager. Queries only read memory, and run on an Executor given to the
+ * constructor (the common ForkJoinPool by default). Changes are queued, and made in the order they were queued by a
+ * single dedicated I/O thread. Whenever it is free, that thread takes every change queued so far (up to MAX_BATCH)
+ * and makes them together under one hold of the write lock, syncing the journal once for the lot. A change's future
+ * completes once the change is on disk as far as the DurabilityPolicy requires, so under load the cost of a sync is
+ * shared between many callers rather than paid by each.
+ *
+ * A change that is invalid fails on its own, without affecting the rest of its batch. If the journal can't be synced,
+ * every change in the batch fails with the IOException, since none of them can be said to be on disk. An Error
+ * fails the change that threw it and the ones after it in the batch, which are not made.
+ *
+ * A query sees every change whose future has completed, but may or may not see a change that is still queued.
+ * close() makes the changes already queued, flushes, stops the I/O thread and closes the ContactManagerImpl.
+ */
+public class AsyncContactManager implements AutoCloseable {
+
+	static final int MAX_BATCH = 1000; //changes made under one hold of the lock, so queries aren't held up for long
+
+	private ConcurrentContactManager cm;
+	private Executor queryExecutor;
+	private BlockingQueue<Change<?>> changes = new LinkedBlockingQueue<Change<?>>();
+	private ExecutorService ioExecutor;
+	private boolean closed;
+
+	public AsyncContactManager() {
+		this(new ContactManagerImpl());
+	}
+
+	/**
+	 * @param cm the ContactManagerImpl to use, which must not be used directly afterwards
+	 */
+	public AsyncContactManager(ContactManagerImpl cm) {
+		this(cm, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param cm the ContactManagerImpl to use, which must not be used directly afterwards
+	 * @param queryExecutor what to run queries on
+	 */
+	public AsyncContactManager(ContactManagerImpl cm, Executor queryExecutor) {
+		this.cm = new ConcurrentContactManager(cm);
+		this.queryExecutor = queryExecutor;
+		ioExecutor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "contact-manager-io");
+			t.setDaemon(true);
+			return t;
+		});
+		ioExecutor.execute(this::makeChanges);
+	}
+
+	/**
+	 * @see ContactManager#addFutureMeeting(Set, Calendar)
+	 * @return the ID of the new meeting
+	 */
+	public CompletableFuture<Integer> addFutureMeetingAsync(Set<Contact> contacts, Calendar date) {
+		return change(() -> cm.addFutureMeeting(contacts, date));
+	}
+
+	/**
+	 * @see ContactManager#addNewPastMeeting(Set, Calendar, String)
+	 */
+	public CompletableFuture<Void> addNewPastMeetingAsync(Set<Contact> contacts, Calendar date, String text) {
+		return change(() -> {
+			cm.addNewPastMeeting(contacts, date, text);
+			return null;
+		});
+	}
+
+	/**
+	 * @see ContactManager#addMeetingNotes(int, String)
+	 */
+	public CompletableFuture<Void> addMeetingNotesAsync(int id, String text) {
+		return change(() -> {
+			cm.addMeetingNotes(id, text);
+			return null;
+		});
+	}
+
+	/**
+	 * @see ContactManager#addNewContact(String, String)
+	 */
+	public CompletableFuture<Void> addNewContactAsync(String name, String notes) {
+		return change(() -> {
+			cm.addNewContact(name, notes);
+			return null;
+		});
+	}
+
+	/**
+	 * Writes everything to disk, once the changes queued before it have been made.
+	 *
+	 * @see ContactManager#flush()
+	 */
+	public CompletableFuture<Void> flushAsync() {
+		return change(() -> {
+			cm.flush();
+			return null;
+		});
+	}
+
+	public CompletableFuture<PastMeeting> getPastMeetingAsync(int id) {
+		return query(() -> cm.getPastMeeting(id));
+	}
+
+	public CompletableFuture<FutureMeeting> getFutureMeetingAsync(int id) {
+		return query(() -> cm.getFutureMeeting(id));
+	}
+
+	public CompletableFuture<Meeting> getMeetingAsync(int id) {
+		return query(() -> cm.getMeeting(id));
+	}
+
+	public CompletableFuture<List<Meeting>> getFutureMeetingListAsync(Contact contact) {
+		return query(() -> cm.getFutureMeetingList(contact));
+	}
+
+	public CompletableFuture<List<Meeting>> getFutureMeetingListAsync(Calendar date) {
+		return query(() -> cm.getFutureMeetingList(date));
+	}
+
+	/**
+	 * @see ContactManagerImpl#getMeetingList(Calendar, Calendar)
+	 */
+	public CompletableFuture<List<Meeting>> getMeetingListAsync(Calendar from, Calendar to) {
+		return query(() -> cm.getMeetingList(from, to));
+	}
+
+	public CompletableFuture<List<PastMeeting>> getPastMeetingListAsync(Contact contact) {
+		return query(() -> cm.getPastMeetingList(contact));
+	}
+
+	public CompletableFuture<Set<Contact>> getContactsAsync(int... ids) {
+		return query(() -> cm.getContacts(ids));
+	}
+
+	public CompletableFuture<Set<Contact>> getContactsAsync(String name) {
+		return query(() -> cm.getContacts(name));
+	}
+
+	/**
+	 * Makes the changes already queued, flushes, stops the I/O thread and closes the ContactManagerImpl.
+	 * Changes queued afterwards fail with an IllegalStateException.
+	 */
+	@Override
+	public void close() {
+		CompletableFuture<Void> flushed;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			flushed = flushAsync();
+			closed = true;
+			changes.add(new Change<Void>(null)); //tells the I/O thread to stop once it reaches it
+		}
+		ioExecutor.shutdown();
+		try {
+			flushed.join();
+		} finally {
+			cm.close();
+		}
+	}
+
+	/**
+	 * Called on the I/O thread once each batch of changes has been made, before their futures complete.
+	 */
+	void changesMade() {
+	}
+
+	private <T> CompletableFuture<T> query(Supplier<T> query) {
+		return CompletableFuture.supplyAsync(query, queryExecutor);
+	}
+
+	private synchronized <T> CompletableFuture<T> change(Supplier<T> change) {
+		Change<T> c = new Change<T>(change);
+		if (closed) {
+			c.future.completeExceptionally(new IllegalStateException("The AsyncContactManager has been closed"));
+		} else {
+			changes.add(c);
+		}
+		return c.future;
+	}
+
+	/**
+	 * Run by the I/O thread until close(): makes the queued changes in batches.
+	 */
+	private void makeChanges() {
+		List<Change<?>> batch = new ArrayList<Change<?>>();
+		boolean stopping = false;
+		while (!stopping) {
+			try {
+				batch.add(changes.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			changes.drainTo(batch, MAX_BATCH - 1);
+			stopping = batch.get(batch.size() - 1).change == null; //nothing is queued after it
+			Throwable failure = null;
+			try {
+				cm.writeBatch(() -> makeAll(batch));
+			} catch (UncheckedIOException e) {
+				failure = e.getCause(); //the journal couldn't be synced
+			} catch (RuntimeException | Error e) {
+				failure = e;
+			}
+			changesMade(); //the changes are in memory even if they aren't on disk
+			if (failure == null) {
+				batch.forEach(Change::complete);
+			} else {
+				Throwable batchFailure = failure;
+				batch.forEach(c -> c.future.completeExceptionally(batchFailure));
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Makes each change of a batch in turn. An Error fails the change that threw it and the ones after it,
+	 * which are not made, but not the ones already made.
+	 */
+	private static void makeAll(List<Change<?>> batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			try {
+				batch.get(i).make();
+			} catch (Error e) {
+				batch.subList(i, batch.size()).forEach(c -> c.exception = e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A queued change, and the future to complete once it has been made and synced.
+	 */
+	private static class Change<T> {
+		private Supplier<T> change; //null to stop the I/O thread
+		private CompletableFuture<T> future = new CompletableFuture<T>();
+		private T result;
+		private Throwable exception;
+
+		Change(Supplier<T> change) {
+			this.change = change;
+		}
+
+		void make() {
+			if (change != null) {
+				try {
+					result = change.get();
+				} catch (RuntimeException e) {
+					exception = e; //an invalid change fails on its own, without affecting the rest of the batch
+				}
+			}
+		}
+
+		void complete() {
+			if (exception != null) {
+				future.completeExceptionally(exception);
+			} else {
+				future.complete(result);
+			}
+		}
+	}
+}
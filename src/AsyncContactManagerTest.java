@@ -0,0 +1,187 @@
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for AsyncContactManager.
+ * @see AsyncContactManager
+ */
+public class AsyncContactManagerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private AsyncContactManager acm;
+	private Set<Contact> contacts;
+	private int batches;
+	private CountDownLatch blocked = new CountDownLatch(1);
+	private CountDownLatch released = new CountDownLatch(1);
+	private volatile boolean blocking;
+
+	@Before
+	public void buildUp() {
+		ContactManagerImpl cmi = new ContactManagerImpl(new File(folder.getRoot(), "contacts.txt"), DurabilityPolicy.everyWrite());
+		cmi.addNewContact("Alan", "nice");
+		contacts = cmi.getContacts(1);
+		cmi.setMetricsListener(new MetricsListener() {
+			@Override
+			public void journalRecordWritten(int bytes, long nanos) {
+				if (blocking) {
+					blocking = false;
+					blocked.countDown();
+					try {
+						released.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		});
+		acm = new AsyncContactManager(cmi) {
+			@Override
+			void changesMade() {
+				batches++;
+			}
+		};
+	}
+
+	/**
+	 * Holds up the I/O thread in the middle of a change, until released is counted down.
+	 */
+	private CompletableFuture<Void> blockIoThread() throws InterruptedException {
+		blocking = true;
+		CompletableFuture<Void> blocker = acm.addNewContactAsync("Blocker", "holds up the I/O thread");
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		return blocker;
+	}
+
+	private Calendar nextYear() {
+		Calendar date = new GregorianCalendar();
+		date.add(Calendar.YEAR, 1);
+		return date;
+	}
+
+	/**
+	 * Test that the changes queued while the I/O thread is busy are made together in one batch
+	 */
+	@Test
+	public void testBatching() throws InterruptedException {
+		CompletableFuture<Void> blocker = blockIoThread();
+		List<CompletableFuture<Integer>> queued = new ArrayList<CompletableFuture<Integer>>();
+		for (int i = 0; i < 100; i++) {
+			queued.add(acm.addFutureMeetingAsync(contacts, nextYear()));
+		}
+		released.countDown();
+		blocker.join();
+		queued.forEach(CompletableFuture::join);
+		assertEquals(batches, 2);
+	}
+
+	/**
+	 * Test that changes are made in the order they were queued
+	 */
+	@Test
+	public void testOrdering() throws InterruptedException {
+		CompletableFuture<Void> blocker = blockIoThread();
+		List<CompletableFuture<Integer>> queued = new ArrayList<CompletableFuture<Integer>>();
+		for (int i = 0; i < 50; i++) {
+			queued.add(acm.addFutureMeetingAsync(contacts, nextYear()));
+		}
+		released.countDown();
+		blocker.join();
+		for (int i = 0; i < queued.size(); i++) {
+			assertEquals((int) queued.get(i).join(), i + 1);
+		}
+	}
+
+	/**
+	 * Test that an invalid change fails on its own, and the rest of its batch is still made
+	 */
+	@Test
+	public void testFailureIsolation() throws InterruptedException {
+		CompletableFuture<Void> blocker = blockIoThread();
+		CompletableFuture<Void> before = acm.addNewContactAsync("Carol", "before");
+		CompletableFuture<Void> invalid = acm.addMeetingNotesAsync(999, "no such meeting");
+		CompletableFuture<Void> after = acm.addNewContactAsync("Dave", "after");
+		released.countDown();
+		blocker.join();
+		before.join();
+		after.join();
+		try {
+			invalid.join();
+			fail();
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		assertEquals(acm.getContactsAsync("Carol").join().size(), 1);
+		assertEquals(acm.getContactsAsync("Dave").join().size(), 1);
+	}
+
+	/**
+	 * Test that an Error fails the change that threw it and those after it in the batch, but not those
+	 * already made
+	 */
+	@Test
+	public void testErrorFailsRestOfBatch() throws InterruptedException {
+		Calendar broken = new GregorianCalendar() {
+			@Override
+			public long getTimeInMillis() {
+				throw new AssertionError("broken calendar");
+			}
+		};
+		CompletableFuture<Void> blocker = blockIoThread();
+		CompletableFuture<Void> before = acm.addNewContactAsync("Carol", "before");
+		CompletableFuture<Void> failing = acm.addNewPastMeetingAsync(contacts, broken, "never made");
+		CompletableFuture<Void> after = acm.addNewContactAsync("Dave", "after");
+		released.countDown();
+		blocker.join();
+		before.join();
+		for (CompletableFuture<Void> f : Arrays.asList(failing, after)) {
+			try {
+				f.join();
+				fail();
+			} catch (CompletionException e) {
+				assertTrue(e.getCause() instanceof AssertionError);
+			}
+		}
+		assertEquals(acm.getContactsAsync("Carol").join().size(), 1);
+		assertEquals(acm.getContactsAsync("Dave").join().size(), 0);
+	}
+
+	/**
+	 * Test that close() makes the changes already queued and writes them to disk, after which changes fail
+	 */
+	@Test
+	public void testClose() throws InterruptedException {
+		CompletableFuture<Void> blocker = blockIoThread();
+		CompletableFuture<Void> queued = acm.addNewContactAsync("Carol", "queued before close");
+		released.countDown();
+		acm.close();
+		assertTrue(blocker.isDone() && queued.isDone());
+		queued.join();
+		try {
+			acm.addNewContactAsync("Dave", "after close").join();
+			fail();
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		acm.close(); //does nothing the second time
+		try (ContactManagerImpl reloaded = new ContactManagerImpl(new File(folder.getRoot(), "contacts.txt"), DurabilityPolicy.everyWrite())) {
+			assertEquals(reloaded.getContacts("Carol").size(), 1);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		released.countDown();
+		acm.close();
+	}
+}
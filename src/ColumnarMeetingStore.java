@@ -0,0 +1,281 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A meeting store that keeps meetings in columns of primitive arrays rather than as one object each.
+ * @author Sophie Koonin
+ * @see MeetingStore
+ *
+ * Meeting IDs are handed out in sequence starting from 1, so each column is indexed directly by ID, as in
+ * ContactTable. For every meeting there is its kind (none, future or past), its date in milliseconds, and
+ * the start and number of its participants' contact IDs in a single shared int array; past meetings also
+ * have a reference to their notes. A million meetings are then a handful of arrays instead of millions of
+ * meeting, set and contact-reference objects.
+ *
+ * get() returns a small view holding only the store and the ID, which reads the columns when it is asked
+ * for something. getContacts() builds a new ParticipantSet from the contact table each time, and getDate() a new
+ * Calendar, so neither can be used to change the store. Two views of the same meeting are equal. A past meeting's
+ * notes are a chain of Notes, to which addNotes() adds a link, so that adding notes takes the same time however
+ * long the notes are; they are joined when they are read, without changing the store.
+ *
+ * Views may be read on other threads while the store is changed, for instance by the callers of a
+ * ConcurrentContactManager after it has released its lock, and many readers must not queue for each other, so
+ * nothing is read under a lock. Changes are made by one thread at a time, as ContactManagerImpl makes them.
+ * The columns are held in a Columns object, whose arrays are copied into a new one when they are full rather
+ * than being replaced one by one, and each change ends by writing it to a volatile field, which publishes
+ * everything written before it to the next reader. A meeting's date and participants never change once it is
+ * stored, and its kind and notes are replaced whole, so a reader sees either the old meeting or the new one.
+ */
+public class ColumnarMeetingStore implements MeetingStore {
+
+	private static final byte NONE = 0;
+	private static final byte FUTURE = 1;
+	private static final byte PAST = 2;
+
+	private ContactTable contacts;
+	private volatile Columns columns; //written after every change, to publish it
+	private int participantsSize; //the part of columns.participants in use
+	private volatile int size;
+
+	/**
+	 * The columns of the store, indexed by meeting ID, and the participants that they point into.
+	 */
+	private static class Columns {
+		final byte[] kinds;
+		final long[] times;
+		final int[] participantStarts;
+		final int[] participantCounts;
+		final Notes[] notes;
+		final int[] participants; //the contact IDs of every meeting's participants, each meeting's in order
+
+		Columns(byte[] kinds, long[] times, int[] participantStarts, int[] participantCounts, Notes[] notes, int[] participants) {
+			this.kinds = kinds;
+			this.times = times;
+			this.participantStarts = participantStarts;
+			this.participantCounts = participantCounts;
+			this.notes = notes;
+			this.participants = participants;
+		}
+
+		int capacity() {
+			return kinds.length;
+		}
+	}
+
+	/**
+	 * The notes of a past meeting: the notes last added, and a link to the ones before them.
+	 */
+	private static class Notes {
+		final String text;
+		final Notes earlier;
+		final int count; //the number of links, this one included
+
+		Notes(String text, Notes earlier) {
+			this.text = text;
+			this.earlier = earlier;
+			this.count = earlier == null ? 1 : earlier.count + 1;
+		}
+
+		/**
+		 * Joins the notes with commas, with no separator in front of the first notes of a meeting that had
+		 * none, as PastMeetingImpl does.
+		 */
+		String join() {
+			if (earlier == null) {
+				return text;
+			}
+			String[] texts = new String[count];
+			int i = count;
+			for (Notes link = this; link != null; link = link.earlier) {
+				texts[--i] = link.text;
+			}
+			StringBuilder joined = new StringBuilder(texts[0]);
+			for (i = 1; i < texts.length; i++) {
+				if (joined.length() > 0) {
+					joined.append(", ");
+				}
+				joined.append(texts[i]);
+			}
+			return joined.toString();
+		}
+	}
+
+	/**
+	 * @param contacts the table that the participants' contact IDs are looked up in
+	 */
+	public ColumnarMeetingStore(ContactTable contacts) {
+		this(contacts, 16);
+	}
+
+	/**
+	 * @param contacts the table that the participants' contact IDs are looked up in
+	 * @param expectedSize the number of meetings the store should hold without resizing
+	 */
+	public ColumnarMeetingStore(ContactTable contacts, int expectedSize) {
+		this.contacts = contacts;
+		int capacity = Math.max(expectedSize + 1, 16);
+		columns = new Columns(new byte[capacity], new long[capacity], new int[capacity], new int[capacity],
+				new Notes[capacity], new int[Math.max(capacity * 2, 16)]);
+	}
+
+	public Meeting get(int id) {
+		Columns c = columns;
+		if (id < 1 || id >= c.capacity()) {
+			return null;
+		}
+		switch (c.kinds[id]) {
+			case FUTURE:
+				return new FutureMeetingView(id);
+			case PAST:
+				return new PastMeetingView(id);
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Copies a meeting's fields into the columns. The meeting itself is not kept.
+	 *
+	 * @throws IllegalArgumentException if the ID is less than 1
+	 */
+	public void put(Meeting meeting) {
+		int id = meeting.getId();
+		if (id < 1) {
+			throw new IllegalArgumentException();
+		}
+		Set<Contact> meetingContacts = meeting.getContacts();
+		Columns c = ensureCapacity(id + 1, participantsSize + meetingContacts.size());
+		boolean added = c.kinds[id] == NONE;
+		int start = participantsSize;
+		for (Contact contact : meetingContacts) {
+			c.participants[participantsSize++] = contact.getId();
+		}
+		Arrays.sort(c.participants, start, participantsSize);
+		c.participantStarts[id] = start;
+		c.participantCounts[id] = meetingContacts.size();
+		c.times[id] = MeetingImpl.timeOf(meeting);
+		if (meeting instanceof PastMeeting) {
+			c.notes[id] = new Notes(((PastMeeting) meeting).getNotes(), null);
+			c.kinds[id] = PAST;
+		} else {
+			c.notes[id] = null;
+			c.kinds[id] = FUTURE;
+		}
+		columns = c;
+		if (added) {
+			size++; //after the meeting is published, so a reader that sees the new size can get it
+		}
+	}
+
+	/**
+	 * Sets the notes of a future meeting, which becomes a past one, or adds them to the notes of a past one.
+	 * The participants stay where they are.
+	 */
+	public void addNotes(int id, String text) {
+		Columns c = columns;
+		if (get(id) == null) {
+			throw new IllegalArgumentException();
+		}
+		if (c.kinds[id] == FUTURE) {
+			c.notes[id] = new Notes(text, null);
+			c.kinds[id] = PAST;
+		} else {
+			c.notes[id] = new Notes(text, c.notes[id]);
+		}
+		columns = c;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the columns, first copying them into larger ones if they can't hold the given number of meetings
+	 * and participants.
+	 */
+	private Columns ensureCapacity(int capacity, int participantCapacity) {
+		Columns c = columns;
+		if (capacity <= c.capacity() && participantCapacity <= c.participants.length) {
+			return c;
+		}
+		int newCapacity = capacity <= c.capacity() ? c.capacity() : Math.max(c.capacity() * 2, capacity);
+		int[] participants = participantCapacity <= c.participants.length ? c.participants
+				: Arrays.copyOf(c.participants, Math.max(c.participants.length * 2, participantCapacity));
+		return new Columns(Arrays.copyOf(c.kinds, newCapacity), Arrays.copyOf(c.times, newCapacity),
+				Arrays.copyOf(c.participantStarts, newCapacity), Arrays.copyOf(c.participantCounts, newCapacity),
+				Arrays.copyOf(c.notes, newCapacity), participants);
+	}
+
+	/**
+	 * A meeting in the store, read from the columns whenever it is asked for something.
+	 */
+	abstract class MeetingView implements Meeting {
+		final int id;
+
+		MeetingView(int id) {
+			this.id = id;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public Calendar getDate() {
+			Calendar date = new GregorianCalendar();
+			date.setTimeInMillis(getTimeInMillis());
+			return date;
+		}
+
+		long getTimeInMillis() {
+			return columns.times[id];
+		}
+
+		public Set<Contact> getContacts() {
+			Columns c = columns;
+			int start = c.participantStarts[id];
+			int count = c.participantCounts[id];
+			List<Contact> result = new ArrayList<Contact>(count);
+			for (int i = start; i < start + count; i++) {
+				result.add(contacts.get(c.participants[i]));
+			}
+			return ParticipantSet.of(result);
+		}
+
+		private ColumnarMeetingStore store() {
+			return ColumnarMeetingStore.this;
+		}
+
+		/**
+		 * @return true if the other object is a view of the same meeting in the same store
+		 */
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof MeetingView && ((MeetingView) other).store() == store() && ((MeetingView) other).id == id;
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+	}
+
+	class FutureMeetingView extends MeetingView implements FutureMeeting {
+		FutureMeetingView(int id) {
+			super(id);
+		}
+	}
+
+	class PastMeetingView extends MeetingView implements PastMeeting {
+		PastMeetingView(int id) {
+			super(id);
+		}
+
+		public String getNotes() {
+			return columns.notes[id].join();
+		}
+	}
+}
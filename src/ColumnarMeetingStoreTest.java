@@ -0,0 +1,142 @@
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class ColumnarMeetingStoreTest {
+	private ColumnarMeetingStore store;
+	private Set<Contact> contactSet;
+
+	@Before
+	public void buildUp(){
+		ContactTable table = new ContactTable();
+		Contact alan = new ContactImpl(1, "Alan", "Likes cheese");
+		Contact sarah = new ContactImpl(2, "Sarah", "Lives in London");
+		table.add(alan);
+		table.add(sarah);
+		store = new ColumnarMeetingStore(table);
+		contactSet = new HashSet<Contact>();
+		contactSet.add(alan);
+		contactSet.add(sarah);
+	}
+
+	@Test
+	public void testGetMissingId(){
+		assertNull(store.get(7));
+	}
+
+	/**
+	 * Test that a stored meeting is read back, as the same kind, from the columns
+	 */
+	@Test
+	public void testPutAndGet(){
+		store.put(new FutureMeetingImpl(1, contactSet, new GregorianCalendar(2016,3,4)));
+		store.put(new PastMeetingImpl(2, contactSet, new GregorianCalendar(2013,3,4), "notes"));
+		assertTrue(store.get(1) instanceof FutureMeeting);
+		assertEquals(store.get(1).getDate().getTimeInMillis(), new GregorianCalendar(2016,3,4).getTimeInMillis());
+		assertEquals(store.get(1).getContacts(), contactSet);
+		assertEquals(((PastMeeting) store.get(2)).getNotes(), "notes");
+		assertEquals(store.size(), 2);
+	}
+
+	/**
+	 * Test that adding notes turns a future meeting into a past one, and appends to a past one
+	 */
+	@Test
+	public void testAddNotes(){
+		store.put(new FutureMeetingImpl(1, contactSet, new GregorianCalendar(2016,3,4)));
+		store.addNotes(1, "happened");
+		store.addNotes(1, "follow-up");
+		PastMeeting pm = (PastMeeting) store.get(1);
+		assertEquals(pm.getNotes(), "happened, follow-up");
+		assertEquals(pm.getContacts(), contactSet);
+	}
+
+	/**
+	 * Test that every meeting can still be found after the columns have grown
+	 */
+	@Test
+	public void testResize(){
+		for (int i = 1; i <= 1000; i++) {
+			store.put(new FutureMeetingImpl(i, contactSet, new GregorianCalendar(2016,3,4)));
+		}
+		for (int i = 1; i <= 1000; i++) {
+			assertEquals(store.get(i).getId(), i);
+			assertEquals(store.get(i).getContacts().size(), 2);
+		}
+		assertNull(store.get(1001));
+	}
+
+	/**
+	 * Test that notes added to a past meeting one at a time are all joined on when they are read
+	 */
+	@Test
+	public void testAddNotesToPastMeeting(){
+		store.put(new PastMeetingImpl(1, contactSet, new GregorianCalendar(2013,3,4), ""));
+		PastMeeting pm = (PastMeeting) store.get(1);
+		for (int i = 0; i < 1000; i++) {
+			store.addNotes(1, "n" + i);
+		}
+		assertTrue(pm.getNotes().startsWith("n0, n1, "));
+		assertTrue(pm.getNotes().endsWith(", n999"));
+		store.addNotes(1, "last");
+		assertTrue(((PastMeeting) store.get(1)).getNotes().endsWith("n999, last"));
+	}
+
+	/**
+	 * Test that two views of the same meeting are equal, and views of different meetings aren't
+	 */
+	@Test
+	public void testViewsEqualById(){
+		store.put(new FutureMeetingImpl(1, contactSet, new GregorianCalendar(2016,3,4)));
+		store.put(new FutureMeetingImpl(2, contactSet, new GregorianCalendar(2016,3,4)));
+		assertEquals(store.get(1), store.get(1));
+		assertEquals(store.get(1).hashCode(), store.get(1).hashCode());
+		assertNotEquals(store.get(1), store.get(2));
+		Set<Meeting> meetings = new HashSet<Meeting>();
+		meetings.add(store.get(1));
+		assertTrue(meetings.contains(store.get(1)));
+	}
+
+	/**
+	 * Test that meetings read on another thread while the store grows and notes are added are always whole
+	 */
+	@Test(timeout = 10000)
+	public void testReadWhileChanging() throws InterruptedException {
+		final int count = 20000;
+		final long time = new GregorianCalendar(2013,3,4).getTimeInMillis();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread reader = new Thread(() -> {
+			try {
+				while (!done.get()) {
+					for (int id = store.size(); id > 0; id--) {
+						Meeting m = store.get(id);
+						assertEquals(contactSet, m.getContacts());
+						assertEquals(time, m.getDate().getTimeInMillis());
+						if (m instanceof PastMeeting) {
+							assertTrue(((PastMeeting) m).getNotes().startsWith("notes"));
+						}
+					}
+				}
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		reader.start();
+		for (int id = 1; id <= count; id++) {
+			store.put(new FutureMeetingImpl(id, contactSet, time));
+			store.addNotes(id, "notes");
+			store.addNotes(id, "more");
+		}
+		done.set(true);
+		reader.join();
+		assertNull(failure.get());
+		assertEquals("notes, more", ((PastMeeting) store.get(count)).getNotes());
+	}
+}
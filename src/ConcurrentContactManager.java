@@ -0,0 +1,262 @@
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A thread-safe ContactManager, which can be shared between any number of threads.
+ * @author Sophie Koonin
+ * @see ContactManagerImpl
+ *
+ * Calls are passed on to a ContactManagerImpl under a read/write lock. Queries only take the read lock,
+ * so they run in parallel with each other and only wait while a change is being made. Changes take the
+ * write lock and so are made one at a time, which also makes handing out contact and meeting IDs atomic.
+ *
+ * A stream over the data can't safely outlive the lock, so exports are done with forEach methods that hold
+ * the read lock while they pass each contact or meeting to the caller. The caller may query the manager again
+ * from inside the forEach, but not change it, which would wait for the read lock it holds itself and so throws
+ * IllegalStateException instead.
+ *
+ * Future meetings whose time has passed are promoted to past meetings before each call. A query that finds a
+ * meeting due swaps its read lock for the write lock to promote it, then downgrades back to the read lock, so
+ * queries only ever block each other at the moment a meeting falls due. A query made from inside a forEach can't
+ * give up the read lock that the forEach still holds, so it leaves any meeting that falls due meanwhile to be
+ * promoted by the next call made outside one, and sees the meetings as the forEach does.
+ */
+public class ConcurrentContactManager implements ContactManager, AutoCloseable {
+
+	private ContactManagerImpl cm;
+	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public ConcurrentContactManager() {
+		this(new ContactManagerImpl());
+	}
+
+	/**
+	 * @param cm the ContactManagerImpl to share, which must not be used directly afterwards
+	 */
+	public ConcurrentContactManager(ContactManagerImpl cm) {
+		this.cm = cm;
+		cm.setPromoteOnAccess(false); //promotions change the indexes, so they are made here under the write lock
+	}
+
+	public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+		return write(() -> cm.addFutureMeeting(contacts, date));
+	}
+
+	public PastMeeting getPastMeeting(int id) {
+		return read(() -> cm.getPastMeeting(id));
+	}
+
+	public FutureMeeting getFutureMeeting(int id) {
+		return read(() -> cm.getFutureMeeting(id));
+	}
+
+	public Meeting getMeeting(int id) {
+		return read(() -> cm.getMeeting(id));
+	}
+
+	public List<Meeting> getFutureMeetingList(Contact contact) {
+		return read(() -> cm.getFutureMeetingList(contact));
+	}
+
+	public List<Meeting> getFutureMeetingList(Calendar date) {
+		return read(() -> cm.getFutureMeetingList(date));
+	}
+
+	/**
+	 * @see ContactManagerImpl#getMeetingList(Calendar, Calendar)
+	 */
+	public List<Meeting> getMeetingList(Calendar from, Calendar to) {
+		return read(() -> cm.getMeetingList(from, to));
+	}
+
+	public List<PastMeeting> getPastMeetingList(Contact contact) {
+		return read(() -> cm.getPastMeetingList(contact));
+	}
+
+	/**
+	 * @see ContactManagerImpl#getSharedMeetingList(Contact...)
+	 */
+	public List<Meeting> getSharedMeetingList(Contact... contacts) {
+		return read(() -> cm.getSharedMeetingList(contacts));
+	}
+
+	public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+		write(() -> {
+			cm.addNewPastMeeting(contacts, date, text);
+			return null;
+		});
+	}
+
+	public void addMeetingNotes(int id, String text) {
+		write(() -> {
+			cm.addMeetingNotes(id, text);
+			return null;
+		});
+	}
+
+	public void addNewContact(String name, String notes) {
+		write(() -> {
+			cm.addNewContact(name, notes);
+			return null;
+		});
+	}
+
+	@Override
+	public int addNewContacts(Iterator<String[]> contacts) {
+		return write(() -> cm.addNewContacts(contacts));
+	}
+
+	@Override
+	public int addNewPastMeetings(Iterator<? extends PastMeeting> meetings) {
+		return write(() -> cm.addNewPastMeetings(meetings));
+	}
+
+	public Set<Contact> getContacts(int... ids) {
+		return read(() -> cm.getContacts(ids));
+	}
+
+	/**
+	 * @see ContactManagerImpl#getContactList(int...)
+	 */
+	public List<Contact> getContactList(int... ids) {
+		return read(() -> cm.getContactList(ids));
+	}
+
+	public Set<Contact> getContacts(String name) {
+		return read(() -> cm.getContacts(name));
+	}
+
+	/**
+	 * @see ContactManagerImpl#getContacts(String, boolean)
+	 */
+	public List<Contact> getContacts(String name, boolean ignoreCase) {
+		return read(() -> cm.getContacts(name, ignoreCase));
+	}
+
+	/**
+	 * @see ContactManagerImpl#getContactsStartingWith(String, boolean)
+	 */
+	public List<Contact> getContactsStartingWith(String prefix, boolean ignoreCase) {
+		return read(() -> cm.getContactsStartingWith(prefix, ignoreCase));
+	}
+
+	/**
+	 * Passes every contact, in order of ID, to the given action. No changes can be made until it returns.
+	 *
+	 * @param action what to do with each contact
+	 * @see ContactManagerImpl#streamContacts()
+	 */
+	public void forEachContact(Consumer<? super Contact> action) {
+		read(() -> {
+			cm.streamContacts().forEach(action);
+			return null;
+		});
+	}
+
+	/**
+	 * Passes every past meeting, in chronological order, to the given action. No changes can be made until it returns.
+	 *
+	 * @param action what to do with each meeting
+	 * @see ContactManagerImpl#streamPastMeetings()
+	 */
+	public void forEachPastMeeting(Consumer<? super PastMeeting> action) {
+		read(() -> {
+			cm.streamPastMeetings().forEach(action);
+			return null;
+		});
+	}
+
+	/**
+	 * Passes every meeting held from one date up to (but not including) another, in chronological order,
+	 * to the given action. No changes can be made until it returns.
+	 *
+	 * @param from the start of the range
+	 * @param to the end of the range
+	 * @param action what to do with each meeting
+	 * @see ContactManagerImpl#streamMeetings(Calendar, Calendar)
+	 */
+	public void forEachMeeting(Calendar from, Calendar to, Consumer<? super Meeting> action) {
+		read(() -> {
+			cm.streamMeetings(from, to).forEach(action);
+			return null;
+		});
+	}
+
+	/**
+	 * @see ContactManagerImpl#setMetricsListener(MetricsListener)
+	 */
+	public void setMetricsListener(MetricsListener listener) {
+		write(() -> {
+			cm.setMetricsListener(listener);
+			return null;
+		});
+	}
+
+	public void flush() {
+		write(() -> {
+			cm.flush();
+			return null;
+		});
+	}
+
+	/**
+	 * @see ContactManagerImpl#close()
+	 */
+	@Override
+	public void close() {
+		write(() -> {
+			cm.close();
+			return null;
+		});
+	}
+
+	/**
+	 * Makes a number of changes under a single hold of the write lock, with the journal synced once at the end.
+	 *
+	 * @param changes the changes to make, by calling the methods of this ConcurrentContactManager
+	 * @see ContactManagerImpl#runBatch(Runnable)
+	 */
+	void writeBatch(Runnable changes) {
+		write(() -> {
+			cm.runBatch(changes);
+			return null;
+		});
+	}
+
+	private <T> T read(Supplier<T> query) {
+		lock.readLock().lock();
+		if (lock.getReadHoldCount() == 1 && cm.isPromotionDue()) { //held again inside a forEach, it can't be swapped
+			lock.readLock().unlock();
+			lock.writeLock().lock();
+			try {
+				cm.promoteDueMeetings();
+				lock.readLock().lock(); //downgrade, so no change can be made before the query runs
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		try {
+			return query.get();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private <T> T write(Supplier<T> change) {
+		if (lock.getReadHoldCount() > 0) {
+			throw new IllegalStateException("Changes can't be made from inside a forEach");
+		}
+		lock.writeLock().lock();
+		try {
+			cm.promoteDueMeetings();
+			return change.get();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
@@ -1,5 +1,13 @@
+/**
+ * Implementation of the Contact interface.
+ * @author Sophie Koonin
+ *
+ * A contact's identity is its ID, which never changes: two contacts are equal if they have the same ID,
+ * and the ID is the hash code. Name and notes play no part, so adding notes doesn't move a contact within
+ * the hash sets it is already in, and looking one up doesn't hash any strings.
+ */
 public class ContactImpl implements Contact, java.io.Serializable{
-	private int id;
+	private final int id;
 	private String name;
 	private String notes;
 	
@@ -11,41 +19,20 @@ public class ContactImpl implements Contact, java.io.Serializable{
 	
 	@Override
 	public boolean equals(Object obj){
-		if (obj.getClass() != this.getClass()) {
-			return false;
-		}
 		if (this == obj) {
 			return true;
 		}
-		if (obj == null) {
-			//DEBUG - System.out.println("Object is null");
+		if (obj == null || obj.getClass() != this.getClass()) {
 			return false;
 		}
 		//Cast other object to type Contact
 		Contact otherContact = (Contact) obj;
-
-		if (otherContact.getId() != this.id){
-			// DEBUG System.out.println("ID mismatch");
-			return false;
-		}
-		if (!this.name.equals(otherContact.getName())) {
-			// DEBUG System.out.println("Name mismatch");
-				return false;
-		}
-		if (!this.notes.equals(otherContact.getNotes())){
-			//DEBUG System.out.println("Notes mismatch");
-			return false;
-		}
-		return true;
-				
+		return otherContact.getId() == this.id;
 	}
 
 	@Override
 	public int hashCode() {
-		int hash = 6;
-		hash =  7 * hash + this.name.hashCode();
-		hash = 7 * hash + this.notes.hashCode();
-		return hash;
+		return id; //IDs are unique and never change, so the ID is its own hash
 	}
 
 	public int getId() {
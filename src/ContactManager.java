@@ -1,4 +1,5 @@
 import java.util.Calendar;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -133,12 +134,67 @@ public interface ContactManager {
 	/**
 	* Returns a list with the contacts whose name contains that string.
 	3*
+	* An empty string matches no contacts, rather than every one.
+	*
 	* @param name the string to search for
 	* @return a list with the contacts whose name contains that string.
 	* @throws NullPointerException if the parameter is null
 	*/
 	Set<Contact> getContacts(String name);
 	
+	/**
+	* Create a new contact for each of the given names and notes.
+	*
+	* Each element is an array holding a name followed by notes, as
+	* for addNewContact(). The contacts are given consecutive IDs in
+	* the order they are read. If an element is invalid, the contacts
+	* before it have already been added, as they also have if the
+	* contacts can't be written to disk.
+	*
+	* @param contacts the name and notes of each new contact
+	* @return the number of contacts added
+	* @throws NullPointerException if a name or notes are null
+	* @throws IllegalArgumentException if an element does not hold a name and notes
+	*/
+	default int addNewContacts(Iterator<String[]> contacts) {
+		int count = 0;
+		while (contacts.hasNext()) {
+			String[] contact = contacts.next();
+			if (contact.length != 2) {
+				throw new IllegalArgumentException();
+			}
+			addNewContact(contact[0], contact[1]);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	* Create a new record for each of the given meetings that took place
+	* in the past.
+	*
+	* The participants, date and notes are taken from each meeting, as
+	* for addNewPastMeeting(); the meetings' own IDs are ignored and new
+	* ones are given. If a meeting is invalid, the meetings before it
+	* have already been added, as they also have if the meetings can't
+	* be written to disk.
+	*
+	* @param meetings the meetings to add
+	* @return the number of meetings added
+	* @throws IllegalArgumentException if a meeting has no contacts, or any of
+	* its contacts does not exist
+	* @throws NullPointerException if a meeting's contacts, date or notes are null
+	*/
+	default int addNewPastMeetings(Iterator<? extends PastMeeting> meetings) {
+		int count = 0;
+		while (meetings.hasNext()) {
+			PastMeeting pm = meetings.next();
+			addNewPastMeeting(pm.getContacts(), pm.getDate(), pm.getNotes());
+			count++;
+		}
+		return count;
+	}
+
 	/**
 	* Save all data to disk.
 	*
@@ -0,0 +1,208 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Micro-benchmarks for every ContactManager operation, over stores of increasing size.
+ * @author Sophie Koonin
+ *
+ * Usage: java ContactManagerBenchmark [--large] [size...]
+ * The default sizes are 1000, 10000 and 100000, and --large adds LARGE_SIZE (a million), which needs a heap
+ * of a few gigabytes, e.g. -Xmx4g. For each size a store is written with that many contacts, past meetings
+ * and future meetings and loaded, then each operation is warmed up and timed, and the average time per call
+ * is printed. Loading is timed both reading and memory-mapping the snapshot, after WARMUP_LOADS untimed
+ * loads, up to the point where the indexes built in the background are ready.
+ *
+ * Each store is kept in a temporary directory, which is deleted afterwards, so a store in the current
+ * directory is never touched.
+ */
+public class ContactManagerBenchmark {
+
+	private static final int WARMUP_CALLS = 2000;
+	private static final int MEASURED_CALLS = 10000;
+	private static final int WARMUP_LOADS = 3;
+	private static final int LARGE_SIZE = 1000000;
+
+	private static volatile int sink; //results are written here so the JIT can't discard the calls
+
+	private int size;
+	private File contactsFile;
+	private Random random = new Random(42);
+	private ContactManagerImpl cm;
+	private List<Contact> contacts;
+	private Calendar now = new GregorianCalendar();
+
+	public ContactManagerBenchmark(int size) {
+		this.size = size;
+	}
+
+	public static void main(String[] args) throws IOException {
+		List<Integer> sizes = new ArrayList<Integer>();
+		boolean large = false;
+		for (String arg : args) {
+			if (arg.equals("--large")) {
+				large = true;
+			} else {
+				sizes.add(Integer.parseInt(arg));
+			}
+		}
+		if (sizes.isEmpty()) {
+			sizes.addAll(Arrays.asList(1000, 10000, 100000));
+		}
+		if (large) {
+			sizes.add(LARGE_SIZE);
+		}
+		System.out.printf("%10s  %-34s %14s%n", "size", "operation", "ns/op");
+		for (int size : sizes) {
+			new ContactManagerBenchmark(size).run();
+		}
+	}
+
+	public void run() throws IOException {
+		File directory = Files.createTempDirectory("contacts-benchmark").toFile();
+		contactsFile = new File(directory, "contacts.txt");
+		try {
+			measureAll();
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private void measureAll() throws IOException {
+		long start = System.nanoTime();
+		populate();
+		report("populate (per record)", (System.nanoTime() - start) / (size * 3L));
+
+		int meetingCount = size * 2;
+		measure("getMeeting", i -> sink += cm.getMeeting(1 + random.nextInt(meetingCount)).getId());
+		measure("getContacts(int)", i -> sink += cm.getContacts(1 + random.nextInt(size)).size());
+		measure("getContacts(int x 100)", i -> sink += cm.getContacts(randomIds(100)).size());
+		measure("getContacts(String)", i -> sink += cm.getContacts("Contact " + random.nextInt(size)).size());
+		measure("getFutureMeetingList(Contact)", i -> sink += cm.getFutureMeetingList(randomContact()).size());
+		measure("getPastMeetingList(Contact)", i -> sink += cm.getPastMeetingList(randomContact()).size());
+		measure("getFutureMeetingList(Calendar)", i -> sink += cm.getFutureMeetingList(randomDate(now.get(Calendar.YEAR) + 1)).size());
+		measure("addNewContact", i -> cm.addNewContact("Extra " + i, "notes"));
+		measure("addFutureMeeting", i -> sink += cm.addFutureMeeting(randomParticipants(), randomDate(now.get(Calendar.YEAR) + 1)));
+		measure("addNewPastMeeting", i -> cm.addNewPastMeeting(randomParticipants(), randomDate(2010), "notes"));
+		measure("addMeetingNotes", i -> cm.addMeetingNotes(pastMeetingId(), "more notes"));
+
+		cm.flush();
+		cm.close();
+		cm = null; //so that only the store being loaded is in memory
+		contacts = null;
+		measureLoad("load (read)", false);
+		measureLoad("load (memory-mapped)", true);
+	}
+
+	private void measureLoad(String name, boolean memoryMapped) {
+		for (int i = 0; i < WARMUP_LOADS; i++) {
+			sink += load(memoryMapped);
+		}
+		long start = System.nanoTime();
+		sink += load(memoryMapped);
+		report(name, System.nanoTime() - start);
+	}
+
+	/**
+	 * Loads the store, then searches by name, which waits for every index built in the background.
+	 */
+	private int load(boolean memoryMapped) {
+		ContactManagerImpl loaded = new ContactManagerImpl(contactsFile, DurabilityPolicy.onFlush(), memoryMapped, Clock.systemDefaultZone(), false);
+		int found = loaded.getContacts("Contact 0").size();
+		loaded.close();
+		return found;
+	}
+
+	/**
+	 * Writes a store of size contacts, size past meetings and size future meetings, each meeting with 1 to 3
+	 * contacts, and loads it. Past meetings get odd IDs and future meetings even ones.
+	 *
+	 * The store is written as a snapshot, since adding the meetings one at a time would write a snapshot
+	 * of every contact after each COMPACTION_THRESHOLD of them, which takes hours for a million.
+	 */
+	private void populate() throws IOException {
+		contacts = new ArrayList<Contact>(size);
+		for (int i = 0; i < size; i++) {
+			contacts.add(new ContactImpl(i + 1, "Contact " + i, "notes about contact " + i));
+		}
+		List<Meeting> futureMeetings = new ArrayList<Meeting>(size);
+		Map<Integer, List<PastMeeting>> pastMeetings = new TreeMap<Integer, List<PastMeeting>>(); //by month
+		int nextYear = now.get(Calendar.YEAR) + 1;
+		for (int i = 0; i < size; i++) {
+			long time = randomDate(2000 + random.nextInt(10)).getTimeInMillis();
+			pastMeetings.computeIfAbsent(ContactStoreShards.monthOf(time), month -> new ArrayList<PastMeeting>())
+					.add(new PastMeetingImpl(2 * i + 1, randomParticipants(), time, "notes about meeting " + i));
+			futureMeetings.add(new FutureMeetingImpl(2 * i + 2, randomParticipants(), randomDate(nextYear + random.nextInt(5))));
+		}
+		List<Contact> noContacts = Collections.emptyList();
+		List<Meeting> noFutureMeetings = Collections.emptyList();
+		List<PastMeeting> noPastMeetings = Collections.emptyList();
+		ContactStoreShards shards = new ContactStoreShards(contactsFile);
+		shards.writeShard(ContactStoreShards.CONTACTS, contacts, noFutureMeetings, noPastMeetings);
+		shards.writeShard(ContactStoreShards.FUTURE, noContacts, futureMeetings, noPastMeetings);
+		for (Map.Entry<Integer, List<PastMeeting>> month : pastMeetings.entrySet()) {
+			shards.writeShard(ContactStoreShards.pastShard(month.getKey()), noContacts, noFutureMeetings, month.getValue());
+		}
+		shards.commit();
+		cm = new ContactManagerImpl(contactsFile, DurabilityPolicy.onFlush());
+		contacts = cm.getContactList(allIds()); //the ones loaded, which the meetings added later must use
+	}
+
+	private void measure(String name, IntConsumer operation) {
+		for (int i = 0; i < WARMUP_CALLS; i++) {
+			operation.accept(i);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_CALLS; i++) {
+			operation.accept(WARMUP_CALLS + i);
+		}
+		report(name, (System.nanoTime() - start) / MEASURED_CALLS);
+	}
+
+	private void report(String name, long nanos) {
+		System.out.printf("%10d  %-34s %14d%n", size, name, nanos);
+	}
+
+	private Contact randomContact() {
+		return contacts.get(random.nextInt(size));
+	}
+
+	private Set<Contact> randomParticipants() {
+		Set<Contact> participants = new HashSet<Contact>();
+		int count = 1 + random.nextInt(3);
+		while (participants.size() < count && participants.size() < size) {
+			participants.add(randomContact());
+		}
+		return participants;
+	}
+
+	private int[] randomIds(int count) {
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = 1 + random.nextInt(size);
+		}
+		return ids;
+	}
+
+	private int[] allIds() {
+		int[] ids = new int[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = i + 1;
+		}
+		return ids;
+	}
+
+	private int pastMeetingId() {
+		return 1 + 2 * random.nextInt(size);
+	}
+
+	private Calendar randomDate(int year) {
+		return new GregorianCalendar(year, random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), 0);
+	}
+}
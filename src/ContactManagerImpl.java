@@ -1,55 +1,185 @@
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import java.io.*;
+import java.time.Clock;
 
 /**
  * Implementation of ContactManager
  * @author Sophie Koonin
  * @see ContactManager
  *
- * Methods that add a new contact or meeting, or add notes to a meeting, write the list contactManagerObjects to file. This is then read when the
- * program is opened anew, to reinstantiate the objects that were previously created.
+ * Methods that add a new contact or meeting, or add notes to a meeting, append a record of the change to the journal file.
+ * The record is appended before the change is made, and a change that can't be journalled is not made, but fails with
+ * an UncheckedIOException. A snapshot that can't be written also fails with an UncheckedIOException, thrown by flush()
+ * or by the change that filled the journal, after the journal has been synced; such a change has still been made.
+ * The contacts and meetings are written to file as a snapshot, in the format described in ContactStoreWriter, when the
+ * journal grows past COMPACTION_THRESHOLD records, and on flush(). When the program is opened anew the snapshot is read and the journal replayed on top of it,
+ * to reinstantiate the objects that were previously created.
+ *
+ * The snapshot is sharded as described in ContactStoreShards: contacts.txt lists a file for the contacts, one for the
+ * future meetings and one for each month of past meetings. The apply methods note which meeting shards they change,
+ * and a snapshot only rewrites those and the contacts, whose notes can change without this knowing.
+ *
+ * How often the journal is forced to disk is set by the DurabilityPolicy passed to the constructor. Whatever the
+ * policy, everything is on disk once flush() returns.
+ *
+ * The snapshot can also be memory-mapped rather than read in, in which case the notes of past meetings are only decoded
+ * when they are asked for. The snapshot is always replaced by writing a new file and renaming it, never by overwriting,
+ * so a mapping of the old file stays valid.
+ *
+ * The current time is read from a Clock, which can be passed to the constructor. Future meetings become past meetings
+ * (with no notes) as soon as their time has passed: before each operation on meetings, the earliest future meetings are
+ * taken from the front of futureMeetingsByDate, which is ordered by time, until the first one still to come. Each costs
+ * O(log n), and nothing is scanned when no meeting is due. These promotions are not journalled, since replaying the
+ * journal against the same clock makes them again.
+ *
+ * Loading is done in two stages. The constructor reads the shards in parallel, builds the contact and meeting ID
+ * indexes, replays the journal into them and returns. The indexes by name, contact and date are then built from
+ * those in the background, as separate tasks on the common ForkJoinPool. Contacts and meetings can be looked up
+ * by ID straight away. Anything that needs the other indexes, including every change, waits for them first.
  */
-public class ContactManagerImpl implements ContactManager {
+public class ContactManagerImpl implements ContactManager, AutoCloseable {
 
-	private Calendar todaysDate;
+	static final int COMPACTION_THRESHOLD = 1000; //journal records allowed before the snapshot is rewritten
+
+	private Clock clock;
+	private boolean promoteOnAccess = true;
 	private List<Contact> contactList;
 	private int newContactId;
 	private int newMeetingId;
-	private List<PastMeeting> pastMeetingList;
-	private List<Meeting> futureMeetingList;
-	private List<List<?>> contactManagerObjects; //the List that holds the other lists, which is written to file
-	private ObjectInputStream inputStream;
-	private File contactsFile;
+	private ContactStoreShards shards;
+	private boolean futureMeetingsChanged; //the shards changed since the last snapshot
+	private Set<Integer> pastMonthsChanged = new HashSet<Integer>();
+	private ContactManagerJournal journal;
+	private ContactTable contactTable; //every contact, by ID
+	private ContactNameIndex contactNameIndex;
+	private boolean columnar;
+	private MeetingStore meetingIndex; //every meeting, past and future, by ID
+	private ContactMeetingIndex futureMeetingsByContact;
+	private ContactMeetingIndex pastMeetingsByContact;
+	private MeetingTimeIndex futureMeetingsByDate;
+	private MeetingTimeIndex pastMeetingsByDate;
+	private MetricsListener metrics; //null unless metrics have been asked for
+	private long loadNanos; //how long the constructor took to load the snapshot and journal
+	private volatile ForkJoinTask<?> indexing; //builds the indexes by name, contact and date after loading, or null once done
+	private boolean replaying; //true while the journal is replayed, before the indexes by name, contact and date exist
+	private long firstFutureTime = Long.MAX_VALUE; //no later than the earliest future meeting, until futureMeetingsByDate is built
 
 
 	public ContactManagerImpl(){
-		contactsFile = new File("contacts.txt");
-		todaysDate = new GregorianCalendar(); //initialise a new calendar to today's date for comparison
+		this(DurabilityPolicy.everyWrite());
+	}
+
+	/**
+	 * Creates a ContactManagerImpl that syncs its journal according to the given policy.
+	 *
+	 * @param policy how often changes are forced to disk
+	 */
+	public ContactManagerImpl(DurabilityPolicy policy){
+		this(policy, false);
+	}
+
+	/**
+	 * Creates a ContactManagerImpl that syncs its journal according to the given policy, and optionally
+	 * memory-maps its snapshot.
+	 *
+	 * @param policy how often changes are forced to disk
+	 * @param memoryMapped true to map the snapshot and decode past meeting notes on demand
+	 */
+	public ContactManagerImpl(DurabilityPolicy policy, boolean memoryMapped){
+		this(policy, memoryMapped, Clock.systemDefaultZone());
+	}
+
+	/**
+	 * Creates a ContactManagerImpl that tells the time by the given clock, which decides when future
+	 * meetings become past meetings.
+	 *
+	 * @param policy how often changes are forced to disk
+	 * @param memoryMapped true to map the snapshot and decode past meeting notes on demand
+	 * @param clock the clock to read the current time from
+	 */
+	public ContactManagerImpl(DurabilityPolicy policy, boolean memoryMapped, Clock clock){
+		this(policy, memoryMapped, clock, false);
+	}
+
+	/**
+	 * Creates a ContactManagerImpl that optionally keeps its meetings in a ColumnarMeetingStore, which
+	 * takes far less memory for large numbers of meetings but hands out views rather than the meetings
+	 * themselves. Past meeting notes are decoded when the snapshot is loaded even if it is memory-mapped.
+	 *
+	 * @param policy how often changes are forced to disk
+	 * @param memoryMapped true to map the snapshot rather than reading it
+	 * @param clock the clock to read the current time from
+	 * @param columnar true to store meetings in primitive arrays rather than as objects
+	 */
+	public ContactManagerImpl(DurabilityPolicy policy, boolean memoryMapped, Clock clock, boolean columnar){
+		this(new File("contacts.txt"), policy, memoryMapped, clock, columnar);
+	}
+
+	/**
+	 * Creates a ContactManagerImpl that keeps its snapshot in the given file, rather than contacts.txt in the
+	 * working directory. The shard files and the journal are kept alongside it, the journal named after it
+	 * with the extension .log.
+	 *
+	 * @param contactsFile the manifest of the snapshot
+	 * @param policy how often changes are forced to disk
+	 */
+	public ContactManagerImpl(File contactsFile, DurabilityPolicy policy){
+		this(contactsFile, policy, false, Clock.systemDefaultZone(), false);
+	}
+
+	/**
+	 * Creates a ContactManagerImpl that keeps its snapshot in the given file, with every other option.
+	 *
+	 * @param contactsFile the manifest of the snapshot, e.g. contacts.txt, whose journal is then contacts.log
+	 * @param policy how often changes are forced to disk
+	 * @param memoryMapped true to map the snapshot rather than reading it
+	 * @param clock the clock to read the current time from
+	 * @param columnar true to store meetings in primitive arrays rather than as objects
+	 */
+	public ContactManagerImpl(File contactsFile, DurabilityPolicy policy, boolean memoryMapped, Clock clock, boolean columnar){
+		this.columnar = columnar;
+		shards = new ContactStoreShards(contactsFile);
+		String base = contactsFile.getName().replaceFirst("\\.[^.]*$", "");
+		journal = new ContactManagerJournal(new File(contactsFile.getAbsoluteFile().getParentFile(), base + ".log"), policy);
+		this.clock = clock; //read whenever a date is compared with today's
+		long loadStart = System.nanoTime();
 		try {
 			if (contactsFile.exists() && contactsFile.length() > 0) {
-				inputStream = new ObjectInputStream(new FileInputStream(contactsFile));
-
 				//if the file exists and there's data in it, use that to repopulate the classes
-				contactManagerObjects = (ArrayList) inputStream.readObject();
-				futureMeetingList = (ArrayList) contactManagerObjects.get(0);
-				pastMeetingList = (ArrayList) contactManagerObjects.get(1);
-				contactList = (ArrayList) contactManagerObjects.get(2);
+				ContactStoreShards.Contents contents = shards.load(memoryMapped);
+				contactList = contents.getContacts();
+				buildIdIndexes(contents.getFutureMeetings(), contents.getPastMeetings());
+				if (!shards.isSharded()) {
+					markAllChanged(contents.getPastMeetings()); //so that the next snapshot splits it into shards
+				}
+				replaying = true;
+				journal.replay(this, shards.getCommittedGeneration()); //apply the changes made since the snapshot was written
+				replaying = false;
 			} else {
 				// otherwise, make new empty objects
-				pastMeetingList = new ArrayList<PastMeeting>();
-				futureMeetingList = new ArrayList<Meeting>();
 				contactList = new ArrayList<Contact>();
-				contactManagerObjects = new ArrayList<List<?>>();
-				contactManagerObjects.add(futureMeetingList);
-				contactManagerObjects.add(pastMeetingList);
-				contactManagerObjects.add(contactList);
-
+				buildIdIndexes(new ArrayList<Meeting>(), new ArrayList<PastMeeting>());
+				markAllChanged(new ArrayList<PastMeeting>());
+			}
+		} catch (IOException ex) {
+			//carrying on with nothing loaded would replace the store with an empty one at the next snapshot
+			throw new UncheckedIOException("Could not load " + contactsFile, ex);
+		}
+		if (contactList.isEmpty() && meetingIndex.size() == 0) {
+			buildIndexes(); //nothing to wait for
+			writeSnapshot(); //start a new snapshot, which also empties any journal left over from an old one
+		} else {
+			indexing = ForkJoinPool.commonPool().submit(this::buildIndexes);
+			if (journal.needsSnapshot()) {
+				writeSnapshot(); //the journal is in an older format, so it's emptied before anything is added to it
 			}
-		} catch (ClassNotFoundException | IOException ex) {
-			ex.printStackTrace();
 		}
-		newContactId = contactList.size()+1; //should be one larger than the size of the contacts list
-		newMeetingId = (futureMeetingList.size() + pastMeetingList.size()) + 1; //should be one larger than size of both meeting lists combined
+		loadNanos = System.nanoTime() - loadStart;
 
 	}
 
@@ -62,22 +192,20 @@ public class ContactManagerImpl implements ContactManager {
 	* of if any contact is unknown / non-existent
 	*/
 	public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
-		if (date.before(todaysDate) || !contactList.containsAll(contacts)) {	//check date + contacts
+		long start = startTiming();
+		if (date.getTimeInMillis() < clock.millis() || !contactTable.containsAll(contacts)) {	//check date + contacts
 			throw new IllegalArgumentException();
 		}
-		FutureMeeting fm = new FutureMeetingImpl(newMeetingId, contacts, date);
-		futureMeetingList.add(fm);
+		promote();
 		try {
-			ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(contactsFile));
-			outputStream.reset();
-			outputStream.writeObject(contactManagerObjects);
-			outputStream.close();
+			journal.appendFutureMeeting(newMeetingId, contacts, date.getTimeInMillis());
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new UncheckedIOException("Could not journal the meeting", e);
 		}
-		newMeetingId++;
+		FutureMeeting fm = applyFutureMeeting(newMeetingId, contacts, date.getTimeInMillis());
+		compactIfNeeded();
 
-		return fm.getId();
+		return timed("addFutureMeeting", start, fm.getId());
 	}
 
 	/**
@@ -88,18 +216,13 @@ public class ContactManagerImpl implements ContactManager {
 	* @throws IllegalArgumentException if there is a meeting with that ID happening in the future
 	*/
 	public PastMeeting getPastMeeting(int id) {
-		PastMeeting result = null;
-		for (Meeting fm: futureMeetingList){
-			if (fm.getId() == id) {
-				throw new IllegalArgumentException();
-			}
-		}
-		for (PastMeeting pm: pastMeetingList){
-			if (pm.getId() == id){
-				result = pm;
-			}
+		long start = startTiming();
+		promote();
+		Meeting result = lookUpMeeting(id);
+		if (result != null && !(result instanceof PastMeeting)) {
+			throw new IllegalArgumentException();
 		}
-		return result;
+		return timed("getPastMeeting", start, (PastMeeting) result);
 	}
 
 	/**
@@ -110,18 +233,13 @@ public class ContactManagerImpl implements ContactManager {
 	* @throws IllegalArgumentException if there is a meeting with that ID happening in the past
 	*/
 	public FutureMeeting getFutureMeeting(int id) {
-		FutureMeeting result = null;
-		for (PastMeeting pm: pastMeetingList){
-			if (pm.getId() == id){
-				throw new IllegalArgumentException();
-			}
-		}
-		for (Meeting fm: futureMeetingList){
-			if (fm.getId()==id){
-				result = (FutureMeeting) fm;
-			}
+		long start = startTiming();
+		promote();
+		Meeting result = lookUpMeeting(id);
+		if (result instanceof PastMeeting) {
+			throw new IllegalArgumentException();
 		}
-		return result;
+		return timed("getFutureMeeting", start, (FutureMeeting) result);
 	}
 
 	/**
@@ -131,18 +249,9 @@ public class ContactManagerImpl implements ContactManager {
 	* @return the meeting with the requested ID, or null if it there is none.
 	*/
 	public Meeting getMeeting(int id) {
-		Meeting result = null;
-		for (Meeting fm: futureMeetingList) {
-			if (fm.getId() == id) {
-				result = fm;
-			}
-		}
-		for (PastMeeting pm: pastMeetingList){
-			if (pm.getId()==id){
-				result = pm;
-			}
-		}
-		return result;
+		long start = startTiming();
+		promote();
+		return timed("getMeeting", start, lookUpMeeting(id));
 	}
 
 	/**
@@ -157,13 +266,13 @@ public class ContactManagerImpl implements ContactManager {
 	* @throws IllegalArgumentException if the contact does not exist
 	*/
 	public List<Meeting> getFutureMeetingList(Contact contact) {
-		if (!contactList.contains(contact)){
+		long start = startTiming();
+		if (!contactTable.contains(contact)){
 			throw new IllegalArgumentException();
 		}
-		List<Meeting> result = new ArrayList<Meeting>();
-		futureMeetingList.stream().filter(m -> m.getContacts().contains(contact)).forEach(result::add);
-		result.sort((m1, m2) -> m1.getDate().compareTo(m2.getDate()));
-		return result;
+		promote();
+		awaitIndexes();
+		return timed("getFutureMeetingList(Contact)", start, meetingsOnTimeline(futureMeetingsByContact.get(contact.getId())));
 	}
 	
 	/**
@@ -178,14 +287,66 @@ public class ContactManagerImpl implements ContactManager {
 	* @return the list of meetings
 	*/
 	public List<Meeting> getFutureMeetingList(Calendar date) {
-		List<Meeting> result = new ArrayList<Meeting>();
-		if (date.before(todaysDate)) {
-			pastMeetingList.stream().filter(m -> m.getDate().get(1) - date.get(1) == 0).filter(m -> m.getDate().get(2) - date.get(2) ==0).filter(m -> m.getDate().get(5) - date.get(5)==0).forEach(result::add);
+		long start = startTiming();
+		promote();
+		awaitIndexes();
+		if (date.getTimeInMillis() < clock.millis()) {
+			return timed("getFutureMeetingList(Calendar)", start, meetingsOnTimeline(pastMeetingsByDate.getDay(date)));
 		} else {
-			futureMeetingList.stream().filter(m -> m.getDate().get(1) - date.get(1) ==0).filter(m -> m.getDate().get(2) - date.get(2) ==0).filter(m -> m.getDate().get(5) - date.get(5)==0).forEach(result::add);
+			return timed("getFutureMeetingList(Calendar)", start, meetingsOnTimeline(futureMeetingsByDate.getDay(date)));
 		}
-		result.sort((m1, m2) -> m1.getDate().compareTo(m2.getDate()));
-		return result;
+	}
+
+	/**
+	* Returns the list of meetings, past and future, held from one date up to
+	* (but not including) another.
+	*
+	* The list will be chronologically sorted and will not contain any duplicates.
+	*
+	* @param from the start of the range
+	* @param to the end of the range
+	* @return the list of meetings, which is empty if to is not after from
+	* @throws NullPointerException if either date is null
+	*/
+	public List<Meeting> getMeetingList(Calendar from, Calendar to) {
+		long start = startTiming();
+		return timed("getMeetingList", start, streamMeetings(from, to).collect(Collectors.toList()));
+	}
+
+	/**
+	* Streams the meetings, past and future, held from one date up to
+	* (but not including) another, in chronological order.
+	*
+	* The meetings are read from the indexes as the stream is used, so
+	* only one day's meetings are held at a time however long the range.
+	* No changes may be made until the stream has been used.
+	*
+	* @param from the start of the range
+	* @param to the end of the range
+	* @return the meetings, which are empty if to is not after from
+	* @throws NullPointerException if either date is null
+	*/
+	public Stream<Meeting> streamMeetings(Calendar from, Calendar to) {
+		if (from == null || to == null) {
+			throw new NullPointerException();
+		}
+		promote();
+		awaitIndexes();
+		return MeetingTimeIndex.stream(from, to, pastMeetingsByDate, futureMeetingsByDate).mapToObj(meetingIndex::get);
+	}
+
+	/**
+	* Streams every past meeting in chronological order, reading them from
+	* the indexes as the stream is used.
+	*
+	* No changes may be made until the stream has been used.
+	*
+	* @return the past meetings
+	*/
+	public Stream<PastMeeting> streamPastMeetings() {
+		promote();
+		awaitIndexes();
+		return MeetingTimeIndex.stream(null, null, pastMeetingsByDate).mapToObj(id -> (PastMeeting) meetingIndex.get(id));
 	}
 
 
@@ -201,13 +362,48 @@ public class ContactManagerImpl implements ContactManager {
 	* @throws IllegalArgumentException if the contact does not exist
 	*/
 	public List<PastMeeting> getPastMeetingList(Contact contact) {
-		if (!contactList.contains(contact)){
+		long start = startTiming();
+		if (!contactTable.contains(contact)){
 			throw new IllegalArgumentException();
 		}
-		List<PastMeeting> result = new ArrayList<PastMeeting>();
-		pastMeetingList.stream().filter(pm->pm.getContacts().contains(contact)).forEach(result::add);
-		result.sort((m1, m2) -> m1.getDate().compareTo(m2.getDate()));
-		return result;
+		promote();
+		awaitIndexes();
+		return timed("getPastMeetingList", start, meetingsOnTimeline(pastMeetingsByContact.get(contact.getId())));
+	}
+
+	/**
+	* Returns the list of meetings, past and future, that all of the given
+	* contacts take part in.
+	*
+	* The list will be chronologically sorted and will not contain any
+	* duplicates. It is found by intersecting the contacts' bitmaps of
+	* meeting IDs, so only the shared meetings themselves are looked up.
+	*
+	* @param contacts the contacts
+	* @return the list of shared meetings (maybe empty).
+	* @throws IllegalArgumentException if no contacts are given, or any contact does not exist
+	*/
+	public List<Meeting> getSharedMeetingList(Contact... contacts) {
+		long start = startTiming();
+		if (contacts.length == 0) {
+			throw new IllegalArgumentException();
+		}
+		int[] ids = new int[contacts.length];
+		for (int i = 0; i < contacts.length; i++) {
+			if (!contactTable.contains(contacts[i])) {
+				throw new IllegalArgumentException();
+			}
+			ids[i] = contacts[i].getId();
+		}
+		promote();
+		awaitIndexes();
+		List<Meeting> result = new ArrayList<Meeting>();
+		pastMeetingsByContact.getShared(ids).forEach(id -> result.add(meetingIndex.get(id)));
+		futureMeetingsByContact.getShared(ids).forEach(id -> result.add(meetingIndex.get(id)));
+		result.sort((m1, m2) -> MeetingImpl.timeOf(m1) != MeetingImpl.timeOf(m2)
+				? Long.compare(MeetingImpl.timeOf(m1), MeetingImpl.timeOf(m2))
+				: Integer.compare(m1.getId(), m2.getId()));
+		return timed("getSharedMeetingList", start, result);
 	}
 
 	/**
@@ -222,24 +418,22 @@ public class ContactManagerImpl implements ContactManager {
 	*/
 
 	public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+		long start = startTiming();
 		if (contacts == null || date == null || text == null) {
 			throw new NullPointerException();
 		}
-		if (contacts.isEmpty() || !contactList.containsAll(contacts)){
+		if (contacts.isEmpty() || !contactTable.containsAll(contacts)){
 			throw new IllegalArgumentException();
 		}
 
-		PastMeeting pm = new PastMeetingImpl(newMeetingId,contacts, date, text);
-		pastMeetingList.add(pm);
 		try {
-			ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(contactsFile));
-			outputStream.reset();
-			outputStream.writeObject(contactManagerObjects);
-			outputStream.close();
+			journal.appendPastMeeting(newMeetingId, contacts, date.getTimeInMillis(), text);
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new UncheckedIOException("Could not journal the meeting", e);
 		}
-		newMeetingId++;
+		applyPastMeeting(newMeetingId, contacts, date.getTimeInMillis(), text);
+		compactIfNeeded();
+		endTiming("addNewPastMeeting", start);
 	}
 
 
@@ -258,42 +452,27 @@ public class ContactManagerImpl implements ContactManager {
 	* @throws NullPointerException if the notes are null
 	*/
 	public void addMeetingNotes(int id, String text) {
+		long start = startTiming();
 		if (text == null) {
 			throw new NullPointerException();
 		}
-		//Look for the meeting in the future meeting list
-		if (futureMeetingList.stream().anyMatch(m->m.getId()==id)){
-			Meeting thisMeeting = futureMeetingList.stream().filter(m->m.getId()==id).findFirst().get();
-			//Check that date isn't in the future
-			if (thisMeeting.getDate().after(todaysDate)){
-				throw new IllegalStateException();
-			}
-			futureMeetingList.removeIf(m -> m.getId() == id);	//look through futureMeetingList for this meeting and remove it
-			PastMeeting pm = new PastMeetingImpl(id, thisMeeting.getContacts(), thisMeeting.getDate(), text);
-			pastMeetingList.add(pm); //Doing this manually rather than calling addPastMeeting to keep ID the same
-
-			//Look for the meeting in the past meeting list
-		} else if (pastMeetingList.stream().anyMatch(m->m.getId()==id)){
-			PastMeeting thisMeeting = pastMeetingList.stream().filter(m->m.getId()==id).findFirst().get();
-			pastMeetingList.removeIf(m->m.getId() == id);
-			PastMeeting newPm = new PastMeetingImpl(id, thisMeeting.getContacts(), thisMeeting.getDate(), thisMeeting.getNotes() + ", "+text);
-			pastMeetingList.add(newPm);
-
-		} else {
-			//If meeting not found
-			throw new IllegalArgumentException();
+		Meeting thisMeeting = meetingIndex.get(id);
+		if (thisMeeting == null){
+			throw new IllegalArgumentException(); //If meeting not found
+		}
+		if (!(thisMeeting instanceof PastMeeting) && MeetingImpl.timeOf(thisMeeting) > clock.millis()){
+			throw new IllegalStateException(); //Check that a future meeting's date has passed
 		}
-
 		try {
-			ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(contactsFile));
-			outputStream.reset();
-			outputStream.writeObject(contactManagerObjects);
-			outputStream.close();
+			journal.appendMeetingNotes(id, text);
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new UncheckedIOException("Could not journal the notes", e);
 		}
+		applyMeetingNotes(id, text);
+		compactIfNeeded();
+		endTiming("addMeetingNotes", start);
 	}
-	
+
 	/**
 	* Create a new contact with the specified name and notes.
 	*
@@ -302,21 +481,115 @@ public class ContactManagerImpl implements ContactManager {
 	* @throws NullPointerException if the name or the notes are null
 	*/
 	public void addNewContact(String name, String notes) {
+		long start = startTiming();
 		if (name == null || notes == null){
 			throw new NullPointerException();		//check that neither notes or name is null
 		}
-		Contact newContact = new ContactImpl(newContactId, name, notes); //instantiate contact with ID
-		contactList.add(newContact); //add it to the internal contact list
 		try {
-			ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(contactsFile));
-			outputStream.reset();
-			outputStream.writeObject(contactManagerObjects);
-			outputStream.close();
+			journal.appendContact(newContactId, name, notes);
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new UncheckedIOException("Could not journal the contact", e);
 		}
+		applyNewContact(newContactId, name, notes);
+		compactIfNeeded();
+		endTiming("addNewContact", start);
+	}
 
-		newContactId++; //increment newContactId for next contact
+	/**
+	* Create a new contact for each of the given names and notes.
+	*
+	* Each element is an array holding a name followed by notes, as
+	* for addNewContact(). The contacts are given consecutive IDs in
+	* the order they are read. If an element is invalid, the contacts
+	* before it have already been added.
+	*
+	* The journal is synced once at the end rather than after each contact. If
+	* more than COMPACTION_THRESHOLD contacts are added, the rest are not
+	* journalled at all, and a single snapshot is written at the end instead.
+	* If that snapshot can't be written, the rest are journalled after all and
+	* an UncheckedIOException is thrown, though every contact has been added.
+	*
+	* @param contacts the name and notes of each new contact
+	* @return the number of contacts added
+	* @throws NullPointerException if a name or notes are null
+	* @throws IllegalArgumentException if an element does not hold a name and notes
+	* @throws UncheckedIOException if the contacts could not be written to disk
+	*/
+	@Override
+	public int addNewContacts(Iterator<String[]> contacts) {
+		long start = startTiming();
+		int firstId = newContactId;
+		int count = 0;
+		journal.beginBatch();
+		try {
+			while (contacts.hasNext()) {
+				String[] contact = contacts.next();
+				if (contact.length != 2) {
+					throw new IllegalArgumentException();
+				}
+				if (contact[0] == null || contact[1] == null) {
+					throw new NullPointerException();
+				}
+				if (count < COMPACTION_THRESHOLD) {
+					journal.appendContact(newContactId, contact[0], contact[1]);
+				}
+				applyNewContact(newContactId, contact[0], contact[1]);
+				count++;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not journal the contacts", e);
+		} finally {
+			endBatch(count, firstId, newMeetingId);
+		}
+		return timed("addNewContacts", start, count);
+	}
+
+	/**
+	* Create a new record for each of the given meetings that took place
+	* in the past.
+	*
+	* The participants, date and notes are taken from each meeting, as
+	* for addNewPastMeeting(); the meetings' own IDs are ignored and new
+	* ones are given. If a meeting is invalid, the meetings before it
+	* have already been added.
+	*
+	* Meetings are journalled as for addNewContacts(Iterator).
+	*
+	* @param meetings the meetings to add
+	* @return the number of meetings added
+	* @throws IllegalArgumentException if a meeting has no contacts, or any of
+	* its contacts does not exist
+	* @throws NullPointerException if a meeting's contacts, date or notes are null
+	* @throws UncheckedIOException if the meetings could not be written to disk
+	*/
+	@Override
+	public int addNewPastMeetings(Iterator<? extends PastMeeting> meetings) {
+		long start = startTiming();
+		int firstId = newMeetingId;
+		int count = 0;
+		journal.beginBatch();
+		try {
+			while (meetings.hasNext()) {
+				PastMeeting meeting = meetings.next();
+				Set<Contact> contacts = meeting.getContacts();
+				if (contacts == null || (!(meeting instanceof MeetingImpl) && meeting.getDate() == null) || meeting.getNotes() == null) {
+					throw new NullPointerException();
+				}
+				if (contacts.isEmpty() || !contactTable.containsAll(contacts)){
+					throw new IllegalArgumentException();
+				}
+				if (count < COMPACTION_THRESHOLD) {
+					journal.appendPastMeeting(newMeetingId, contacts, MeetingImpl.timeOf(meeting), meeting.getNotes());
+				}
+				applyPastMeeting(newMeetingId, contacts, MeetingImpl.timeOf(meeting), meeting.getNotes());
+				count++;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not journal the meetings", e);
+		} finally {
+			endBatch(count, newContactId, firstId);
+		}
+		return timed("addNewPastMeetings", start, count);
 	}
 
 	/**
@@ -327,31 +600,93 @@ public class ContactManagerImpl implements ContactManager {
 	* @throws IllegalArgumentException if any of the IDs does not correspond to a real contact
 	*/
 	public Set<Contact> getContacts(int... ids) {
+		long start = startTiming();
 		Set<Contact> result = new HashSet<Contact>();
 		for (int thisId: ids) {
-			contactList.stream().filter(c->c.getId() == thisId).forEach(result::add);
-			if (result.isEmpty()){
-				throw new IllegalArgumentException(); 	//if no contacts with that ID are found
-			}
+			result.add(getContact(thisId));
 		}
-		return result;
+		return timed("getContacts(int...)", start, result);
+	}
+
+	/**
+	* Returns a list containing the contacts that correspond to the IDs, in the
+	* order in which the IDs were given.
+	*
+	* If an ID is given more than once, its contact appears more than once.
+	*
+	* @param ids an arbitrary number of contact IDs
+	* @return a list containing the contacts that correspond to the IDs.
+	* @throws IllegalArgumentException if any of the IDs does not correspond to a real contact
+	*/
+	public List<Contact> getContactList(int... ids) {
+		long start = startTiming();
+		List<Contact> result = new ArrayList<Contact>(ids.length);
+		for (int thisId: ids) {
+			result.add(getContact(thisId));
+		}
+		return timed("getContactList", start, result);
 	}
 
-	
 	/**
 	* Returns a list with the contacts whose name contains that string.
 	3*
+	* The search is case sensitive, and an empty string matches no contacts.
+	*
 	* @param name the string to search for
 	* @return a list with the contacts whose name contains that string.
 	* @throws NullPointerException if the parameter is null
 	*/
 	public Set<Contact> getContacts(String name) {
+		long start = startTiming();
 		if (name == null) {
 			throw new NullPointerException();
 		}
-		Set<Contact> result = new HashSet<Contact>();
-		contactList.stream().filter(c -> c.getName().equals(name)).forEach(result::add);
-		return result;
+		return timed("getContacts(String)", start, new HashSet<Contact>(searchNames(name, false, false)));
+	}
+
+	/**
+	* Streams every contact in order of ID, without copying the contact list.
+	*
+	* No changes may be made until the stream has been used.
+	*
+	* @return the contacts
+	*/
+	public Stream<Contact> streamContacts() {
+		return IntStream.range(1, newContactId).mapToObj(contactTable::get).filter(Objects::nonNull);
+	}
+
+	/**
+	* Returns a list with the contacts whose name contains that string,
+	* optionally ignoring case.
+	*
+	* @param name the string to search for
+	* @param ignoreCase true if upper and lower case letters should match each other
+	* @return a list with the contacts whose name contains that string, in order of ID.
+	* @throws NullPointerException if the parameter is null
+	*/
+	public List<Contact> getContacts(String name, boolean ignoreCase) {
+		long start = startTiming();
+		if (name == null) {
+			throw new NullPointerException();
+		}
+		return timed("getContacts(String, boolean)", start, searchNames(name, false, ignoreCase));
+	}
+
+	/**
+	* Returns a list with the contacts whose name starts with that string,
+	* optionally ignoring case.
+	*
+	* @param prefix the string to search for
+	* @param ignoreCase true if upper and lower case letters should match each other
+	* @return a list with the contacts whose name starts with that string, in order of ID.
+	* @throws NullPointerException if the parameter is null
+	*/
+	public List<Contact> getContactsStartingWith(String prefix, boolean ignoreCase) {
+		long start = startTiming();
+		if (prefix == null) {
+			throw new NullPointerException();
+		}
+		return timed("getContactsStartingWith", start, searchNames(prefix, true, ignoreCase));
 	}
 	
 	/**
@@ -359,14 +694,467 @@ public class ContactManagerImpl implements ContactManager {
 	*
 	* This method must be executed when the program is
 	* closed and when/if the user requests it.
+	*
+	* Once it returns, every change made so far is on disk regardless of the DurabilityPolicy.
+	*
+	* @throws UncheckedIOException if the snapshot could not be written. The journal has been
+	* synced even so, and still holds the changes unless that failed too.
 	*/
 	public void flush() {
+		long start = startTiming();
+		promote();
+		writeSnapshot();
+		endTiming("flush", start);
+	}
+
+	/**
+	 * Syncs and closes the journal, and stops its group commit timer, if it has one. Every change made so
+	 * far is on disk once it returns, but the snapshot is only written by flush(). Nothing may be changed
+	 * afterwards.
+	 *
+	 * @throws UncheckedIOException if the journal could not be synced
+	 */
+	@Override
+	public void close() {
+		journal.stopTimer();
+		try {
+			journal.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not sync the journal", e);
+		}
+	}
+
+	/**
+	* Sets the listener that is told how long each operation takes, how many bytes
+	* are written to disk and whether index lookups find anything. The listener is
+	* told how long loading took straight away, since that happened in the constructor.
+	*
+	* With no listener, which is the default, nothing is measured.
+	*
+	* @param listener the listener, or null to stop reporting
+	* @see ContactManagerMetrics
+	*/
+	public void setMetricsListener(MetricsListener listener) {
+		metrics = listener;
+		journal.setMetricsListener(listener);
+		if (listener != null) {
+			listener.loaded(loadNanos);
+		}
+	}
+
+	/*
+	 * The apply methods make a change to the lists without validating it or writing it to disk.
+	 * They are used both by the public methods above, once the arguments have been checked, and by
+	 * ContactManagerJournal when replaying the journal at startup.
+	 */
+
+	Contact applyNewContact(int id, String name, String notes) {
+		boolean indexed = awaitIndexes(); //they are built from the list, so it can't change until they're done
+		Contact newContact = new ContactImpl(id, name, notes); //instantiate contact with ID
+		contactList.add(newContact); //add it to the internal contact list
+		contactTable.add(newContact);
+		if (indexed) {
+			contactNameIndex.add(newContact);
+		}
+		newContactId = Math.max(newContactId, id + 1); //next contact gets the following ID
+		return newContact;
+	}
+
+	FutureMeeting applyFutureMeeting(int id, Set<Contact> contacts, long time) {
+		boolean indexed = awaitIndexes();
+		FutureMeeting fm = new FutureMeetingImpl(id, contacts, time);
+		meetingIndex.put(fm);
+		if (indexed) {
+			futureMeetingsByContact.add(fm);
+			futureMeetingsByDate.add(fm);
+		} else {
+			firstFutureTime = Math.min(firstFutureTime, time);
+		}
+		futureMeetingsChanged = true;
+		newMeetingId = Math.max(newMeetingId, id + 1);
+		return fm;
+	}
+
+	PastMeeting applyPastMeeting(int id, Set<Contact> contacts, long time, String text) {
+		boolean indexed = awaitIndexes();
+		PastMeeting pm = new PastMeetingImpl(id, contacts, time, text);
+		meetingIndex.put(pm);
+		if (indexed) {
+			pastMeetingsByContact.add(pm);
+			pastMeetingsByDate.add(pm);
+		}
+		pastMonthsChanged.add(ContactStoreShards.monthOf(time));
+		newMeetingId = Math.max(newMeetingId, id + 1);
+		return pm;
+	}
+
+	void applyMeetingNotes(int id, String text) {
+		boolean indexed = awaitIndexes();
+		Meeting thisMeeting = meetingIndex.get(id);
+		pastMonthsChanged.add(ContactStoreShards.monthOf(MeetingImpl.timeOf(thisMeeting)));
+		if (thisMeeting instanceof PastMeeting){
+			meetingIndex.addNotes(id, text); //appended in place - the indexes don't change
+		} else if (!indexed) {
+			futureMeetingsChanged = true;
+			meetingIndex.addNotes(id, text);
+		} else {
+			futureMeetingsChanged = true;
+			futureMeetingsByContact.remove(thisMeeting);
+			futureMeetingsByDate.remove(thisMeeting);
+			meetingIndex.addNotes(id, text); //becomes a past meeting with the same ID, contacts and date
+			Meeting newPm = meetingIndex.get(id);
+			pastMeetingsByContact.add(newPm);
+			pastMeetingsByDate.add(newPm);
+		}
+	}
+
+	/**
+	 * Turns every future meeting whose time has passed into a past meeting with no notes, earliest first.
+	 *
+	 * @return the number of meetings promoted
+	 */
+	int promoteDueMeetings() {
+		awaitIndexes();
+		long now = clock.millis();
+		int promoted = 0;
+		for (MeetingTimeline next = futureMeetingsByDate.first(); next != null && next.getTime(0) < now; next = futureMeetingsByDate.first()) {
+			applyMeetingNotes(next.getId(0), "");
+			promoted++;
+		}
+		return promoted;
+	}
+
+	/**
+	 * @return true if a future meeting's time has passed, so promoteDueMeetings() has work to do
+	 */
+	boolean isPromotionDue() {
+		if (indexing != null) {
+			return firstFutureTime < clock.millis(); //may be early, if that meeting has had notes added since loading
+		}
+		MeetingTimeline next = futureMeetingsByDate.first();
+		return next != null && next.getTime(0) < clock.millis();
+	}
+
+	/**
+	 * Sets whether meetings that are due are promoted at the start of each operation, which is the default.
+	 * ConcurrentContactManager turns this off and calls promoteDueMeetings() itself, under its write lock,
+	 * so that queries made under the read lock never change anything.
+	 */
+	void setPromoteOnAccess(boolean promoteOnAccess) {
+		this.promoteOnAccess = promoteOnAccess;
+	}
+
+	/**
+	 * Returns the contacts with the given IDs, skipping any that don't exist.
+	 * Used when replaying meetings from the journal, which records participants by ID.
+	 */
+	Set<Contact> contactsForIds(int[] ids) {
+		Set<Contact> result = new HashSet<Contact>();
+		for (int thisId : ids) {
+			Contact c = contactTable.get(thisId);
+			if (c != null) {
+				result.add(c);
+			}
+		}
+		return result;
+	}
+
+	private Meeting lookUpMeeting(int id) {
+		Meeting result = meetingIndex.get(id);
+		if (metrics != null) {
+			metrics.indexLookup("meetings", result != null);
+		}
+		return result;
+	}
+
+	private List<Contact> searchNames(String query, boolean prefix, boolean ignoreCase) {
+		awaitIndexes();
+		List<Contact> result = contactNameIndex.search(query, prefix, ignoreCase);
+		if (metrics != null) {
+			metrics.indexLookup("names", !result.isEmpty());
+		}
+		return result;
+	}
+
+	/*
+	 * Operations are timed with startTiming() and then timed() or endTiming(), which only read the
+	 * clock while a MetricsListener is set. Operations that throw are not reported.
+	 */
+
+	private long startTiming() {
+		return metrics == null ? 0 : System.nanoTime();
+	}
+
+	private void endTiming(String operation, long start) {
+		if (metrics != null) {
+			metrics.operationCompleted(operation, System.nanoTime() - start);
+		}
+	}
+
+	private <T> T timed(String operation, long start, T result) {
+		endTiming(operation, start);
+		return result;
+	}
+
+	private int timed(String operation, long start, int result) {
+		endTiming(operation, start);
+		return result;
+	}
+
+	private void promote() {
+		if (promoteOnAccess && isPromotionDue()) {
+			promoteDueMeetings();
+		}
+	}
+
+	private Contact getContact(int id) {
+		Contact c = contactTable.get(id);
+		if (metrics != null) {
+			metrics.indexLookup("contacts", c != null);
+		}
+		if (c == null){
+			throw new IllegalArgumentException(); 	//if no contact with that ID is found
+		}
+		return c;
+	}
+
+	/**
+	 * Builds the contact and meeting ID indexes, which are not written to file, from the contact list and the meetings
+	 * read from file. The meeting index then holds the only reference to each meeting.
+	 *
+	 * The next IDs follow the highest ones read, rather than the number read, which falls short of them
+	 * wherever an ID was skipped.
+	 */
+	private void buildIdIndexes(List<Meeting> futureMeetingList, List<PastMeeting> pastMeetingList) {
+		contactTable = new ContactTable(contactList.size());
+		newContactId = 1;
+		for (Contact c : contactList) {
+			contactTable.add(c);
+			newContactId = Math.max(newContactId, c.getId() + 1);
+		}
+		int meetingCount = futureMeetingList.size() + pastMeetingList.size();
+		meetingIndex = columnar ? new ColumnarMeetingStore(contactTable, meetingCount) : new IntMeetingMap(meetingCount);
+		newMeetingId = 1;
+		for (Meeting m : futureMeetingList) {
+			meetingIndex.put(m);
+			firstFutureTime = Math.min(firstFutureTime, MeetingImpl.timeOf(m));
+			newMeetingId = Math.max(newMeetingId, m.getId() + 1);
+		}
+		for (Meeting m : pastMeetingList) {
+			meetingIndex.put(m);
+			newMeetingId = Math.max(newMeetingId, m.getId() + 1);
+		}
+	}
+
+	/**
+	 * Builds the indexes by name, contact and date from the contact list and the meeting ID index, each as a
+	 * separate fork-join task. Nothing may change the list or the ID index until it returns.
+	 */
+	private void buildIndexes() {
+		List<Meeting> futureMeetingList = new ArrayList<Meeting>();
+		List<Meeting> pastMeetingList = new ArrayList<Meeting>();
+		for (int id = 1; id < newMeetingId; id++) {
+			Meeting m = meetingIndex.get(id);
+			if (m instanceof PastMeeting) {
+				pastMeetingList.add(m);
+			} else if (m != null) {
+				futureMeetingList.add(m);
+			}
+		}
+		ForkJoinTask.invokeAll(
+				ForkJoinTask.adapt(() -> {
+					ContactNameIndex nameIndex = new ContactNameIndex(contactTable);
+					contactList.forEach(nameIndex::add);
+					contactNameIndex = nameIndex;
+				}),
+				ForkJoinTask.adapt(() -> futureMeetingsByContact = indexByContact(futureMeetingList)),
+				ForkJoinTask.adapt(() -> pastMeetingsByContact = indexByContact(pastMeetingList)),
+				ForkJoinTask.adapt(() -> futureMeetingsByDate = indexByDate(futureMeetingList)),
+				ForkJoinTask.adapt(() -> pastMeetingsByDate = indexByDate(pastMeetingList)));
+	}
+
+	private static ContactMeetingIndex indexByContact(List<Meeting> meetingList) {
+		ContactMeetingIndex index = new ContactMeetingIndex();
+		index.addAll(meetingList); //sorts each timeline once, rather than inserting meetings out of date order
+		return index;
+	}
+
+	private static MeetingTimeIndex indexByDate(List<Meeting> meetingList) {
+		MeetingTimeIndex index = new MeetingTimeIndex();
+		index.addAll(meetingList);
+		return index;
+	}
+
+	/**
+	 * Waits for the indexes by name, contact and date, if they are still being built after loading.
+	 *
+	 * @return false while the journal is being replayed, before they have been started
+	 */
+	private boolean awaitIndexes() {
+		if (replaying) {
+			return false;
+		}
+		ForkJoinTask<?> task = indexing;
+		if (task != null) {
+			task.join();
+			indexing = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Looks up the meetings on a timeline, keeping them in chronological order.
+	 *
+	 * @param timeline a timeline of meeting IDs, or null for none
+	 * @return the meetings, which may be empty
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends Meeting> List<T> meetingsOnTimeline(MeetingTimeline timeline) {
+		if (timeline == null) {
+			return new ArrayList<T>();
+		}
+		List<T> result = new ArrayList<T>(timeline.size());
+		for (int i = 0; i < timeline.size(); i++) {
+			result.add((T) meetingIndex.get(timeline.getId(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the shards that have changed since the last snapshot, and then a new contacts.txt listing them,
+	 * after which the journal is no longer needed.
+	 *
+	 * @throws UncheckedIOException if the snapshot could not be written, once the journal has been synced
+	 */
+	private void writeSnapshot() {
+		long start = startTiming();
+		awaitIndexes();
+		try {
+			long bytes = 0;
+			List<Contact> noContacts = Collections.emptyList();
+			List<Meeting> noFutureMeetings = Collections.emptyList();
+			List<PastMeeting> noPastMeetings = Collections.emptyList();
+			//always written, since a contact's notes can be added through the Contact itself without this knowing
+			bytes += shards.writeShard(ContactStoreShards.CONTACTS, contactList, noFutureMeetings, noPastMeetings);
+			if (futureMeetingsChanged) {
+				List<Meeting> futureMeetingList = meetingsBetween(null, null, futureMeetingsByDate);
+				bytes += shards.writeShard(ContactStoreShards.FUTURE, noContacts, futureMeetingList, noPastMeetings);
+			}
+			for (int month : pastMonthsChanged) {
+				Calendar from = ContactStoreShards.startOfMonth(month);
+				Calendar to = ContactStoreShards.startOfMonth(month + 1);
+				List<PastMeeting> pastMeetingList = meetingsBetween(from, to, pastMeetingsByDate);
+				bytes += shards.writeShard(ContactStoreShards.pastShard(month), noContacts, noFutureMeetings, pastMeetingList);
+			}
+			bytes += shards.commit(); //the journal is emptied next, so the snapshot must be on disk first
+			journal.truncate(shards.getCommittedGeneration());
+			futureMeetingsChanged = false;
+			pastMonthsChanged.clear();
+			if (metrics != null) {
+				metrics.snapshotWritten(bytes, System.nanoTime() - start);
+			}
+		} catch (IOException e) {
+			try {
+				journal.sync(); //so the changes are on disk in the journal, whatever the policy
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw new UncheckedIOException("Could not write the snapshot", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends Meeting> List<T> meetingsBetween(Calendar from, Calendar to, MeetingTimeIndex index) {
+		List<T> result = new ArrayList<T>();
+		MeetingTimeIndex.stream(from, to, index).forEach(id -> result.add((T) meetingIndex.get(id)));
+		return result;
+	}
+
+	/**
+	 * Marks every shard as changed, so that the next snapshot writes the whole store.
+	 *
+	 * @param pastMeetingList the past meetings read from file
+	 */
+	private void markAllChanged(List<PastMeeting> pastMeetingList) {
+		futureMeetingsChanged = true;
+		pastMeetingList.forEach(pm -> pastMonthsChanged.add(ContactStoreShards.monthOf(MeetingImpl.timeOf(pm))));
+	}
+
+	/**
+	 * Makes a number of changes with the journal synced once at the end rather than after each one, as the
+	 * bulk imports do. AsyncContactManager uses it to coalesce the changes queued by many callers.
+	 *
+	 * @param changes the changes to make, by calling the methods of this ContactManagerImpl
+	 */
+	void runBatch(Runnable changes) {
+		journal.beginBatch();
+		try {
+			changes.run();
+		} finally {
+			endBatch(0, newContactId, newMeetingId);
+		}
+	}
+
+	/**
+	 * Ends a bulk import of count records, of which only the first COMPACTION_THRESHOLD were journalled.
+	 * The rest are left to the snapshot written here, and if it isn't committed they are journalled after all,
+	 * so that the journal never has a gap in the IDs that later records refer to.
+	 *
+	 * @param count the number of records imported
+	 * @param firstContactId the ID of the first contact imported, or newContactId if none were
+	 * @param firstMeetingId the ID of the first meeting imported, or newMeetingId if none were
+	 * @throws UncheckedIOException if the journal could not be synced or the snapshot written, so the changes
+	 * may not be on disk
+	 */
+	private void endBatch(int count, int firstContactId, int firstMeetingId) {
+		try {
+			journal.endBatch();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not sync the journal", e);
+		} finally {
+			if (count > COMPACTION_THRESHOLD) {
+				long committed = shards.getCommittedGeneration();
+				try {
+					writeSnapshot();
+				} catch (UncheckedIOException e) {
+					if (shards.getCommittedGeneration() == committed) {
+						journalRest(firstContactId, firstMeetingId, e);
+					}
+					throw e;
+				}
+			} else {
+				compactIfNeeded();
+			}
+		}
+	}
+
+	/**
+	 * Journals and syncs the contacts and meetings of a bulk import past the first COMPACTION_THRESHOLD,
+	 * when the snapshot they were left to has failed.
+	 *
+	 * @param firstContactId the ID of the first contact imported
+	 * @param firstMeetingId the ID of the first meeting imported
+	 * @param failure the snapshot's failure, to which any failure here is added
+	 */
+	private void journalRest(int firstContactId, int firstMeetingId, UncheckedIOException failure) {
 		try {
-			if (inputStream != null) {
-				inputStream.close();
+			for (int id = firstContactId + COMPACTION_THRESHOLD; id < newContactId; id++) {
+				Contact c = contactTable.get(id);
+				journal.appendContact(id, c.getName(), c.getNotes());
 			}
+			for (int id = firstMeetingId + COMPACTION_THRESHOLD; id < newMeetingId; id++) {
+				PastMeeting pm = (PastMeeting) meetingIndex.get(id);
+				journal.appendPastMeeting(id, pm.getContacts(), MeetingImpl.timeOf(pm), pm.getNotes());
+			}
+			journal.sync();
 		} catch (IOException e) {
-			e.printStackTrace();
+			failure.addSuppressed(e);
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (journal.getRecordCount() >= COMPACTION_THRESHOLD) {
+			writeSnapshot();
 		}
 	}
 
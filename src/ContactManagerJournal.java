@@ -0,0 +1,508 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the changes made to a ContactManagerImpl since its last snapshot.
+ * @author Sophie Koonin
+ * @see ContactManagerImpl
+ *
+ * Each mutation is written as one small record (an opcode followed by its fields), so the cost of
+ * saving a change depends only on the size of that change. Contacts are written as their IDs, and
+ * dates as milliseconds. When the snapshot is rewritten the log is truncated, and when the program
+ * is opened anew the records are replayed on top of the snapshot.
+ *
+ * The log starts with MAGIC, VERSION and the generation of the snapshot its records follow, and each
+ * record is preceded by its length and its CRC32C checksum. Replay stops at the first record that is
+ * cut short or fails its checksum, which is what a crash in the middle of a write leaves, and truncates
+ * the log there so that later records are appended after the last good one. A damaged record followed
+ * by good ones is not the tail of a crash, and fails the replay, as does a file that isn't a journal.
+ * Names and notes are written as in ContactStoreWriter, so they can be any length.
+ *
+ * A snapshot is committed before the log is emptied, so a crash in between leaves a log whose records
+ * are already in the snapshot. Its generation is older than the one the manifest records, and it is
+ * emptied without being replayed.
+ *
+ * A log in an older format is still replayed, but can't be appended to: needsSnapshot() tells the
+ * ContactManagerImpl to write a snapshot, which empties it. Version 2 had no generation, version 1
+ * also wrote strings with writeUTF(), which can't write one over 64KB, and a log from before records
+ * had checksums starts with an opcode rather than MAGIC.
+ *
+ * A record that can't be written is cut off the log again, and the IOException thrown, so that the
+ * log never holds a change that the ContactManagerImpl didn't make. A failed sync on the group commit
+ * timer is thrown by the next append instead, until a snapshot empties the log.
+ *
+ * Records are synced to disk according to the journal's DurabilityPolicy. A group commit policy with a
+ * delay is driven by a single daemon thread shared between all journals.
+ */
+public class ContactManagerJournal {
+
+	static final byte NEW_CONTACT = 1;
+	static final byte FUTURE_MEETING = 2;
+	static final byte PAST_MEETING = 3;
+	static final byte MEETING_NOTES = 4;
+
+	static final int MAGIC = 0x434D4A4C; //"CMJL"
+	static final int VERSION = 3;
+	static final int HEADER_LENGTH = 13;
+	private static final int OLD_HEADER_LENGTH = 5; //of versions 1 and 2, which had no generation
+	private static final int RECORD_HEADER_LENGTH = 8; //the length and checksum of a record
+
+	private static ScheduledExecutorService syncTimer;
+
+	private File logFile;
+	private DurabilityPolicy policy;
+	private FileOutputStream fileStream;
+	private DataOutputStream outputStream;
+	private int recordCount; //records written since the last truncate
+	private int pendingWrites; //records written since the last sync
+	private boolean inBatch; //true while syncing is held back until endBatch()
+	private ScheduledFuture<?> syncTask;
+	private MetricsListener metrics;
+	private long recordStartNanos;
+	private ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(); //the record being written
+	private DataOutputStream record = new DataOutputStream(recordBytes);
+	private CRC32C checksum = new CRC32C();
+	private boolean oldFormat; //the log was written in an older format, so nothing can be appended to it
+	private int replayVersion; //the format of the log being replayed, 0 for one without checksums
+	private long logLength; //the length of the open log, including anything still buffered
+	private long generation; //the generation of the snapshot that the records follow
+	private IOException failure; //a failed sync or an unreadable log, thrown on the next append
+
+	public ContactManagerJournal(File logFile) {
+		this(logFile, DurabilityPolicy.everyWrite());
+	}
+
+	public ContactManagerJournal(File logFile, DurabilityPolicy policy) {
+		this.logFile = logFile;
+		this.policy = policy;
+		if (policy.getMaxDelayMillis() > 0) {
+			long delay = policy.getMaxDelayMillis();
+			syncTask = getSyncTimer().scheduleWithFixedDelay(this::syncQuietly, delay, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Returns the number of records appended since the log was last truncated.
+	 *
+	 * @return the number of records in the log
+	 */
+	public synchronized int getRecordCount() {
+		return recordCount;
+	}
+
+	/*
+	 * The append methods are called before the change is made, so that a change that can't be
+	 * journalled isn't made at all.
+	 */
+
+	public synchronized void appendContact(int id, String name, String notes) throws IOException {
+		DataOutputStream out = open();
+		out.writeByte(NEW_CONTACT);
+		out.writeInt(id);
+		ContactStoreWriter.writeString(out, name);
+		ContactStoreWriter.writeString(out, notes);
+		endRecord();
+	}
+
+	public synchronized void appendFutureMeeting(int id, Set<Contact> contacts, long time) throws IOException {
+		DataOutputStream out = open();
+		out.writeByte(FUTURE_MEETING);
+		writeMeeting(out, id, contacts, time);
+		endRecord();
+	}
+
+	public synchronized void appendPastMeeting(int id, Set<Contact> contacts, long time, String notes) throws IOException {
+		DataOutputStream out = open();
+		out.writeByte(PAST_MEETING);
+		writeMeeting(out, id, contacts, time);
+		ContactStoreWriter.writeString(out, notes);
+		endRecord();
+	}
+
+	public synchronized void appendMeetingNotes(int id, String text) throws IOException {
+		DataOutputStream out = open();
+		out.writeByte(MEETING_NOTES);
+		out.writeInt(id);
+		ContactStoreWriter.writeString(out, text);
+		endRecord();
+	}
+
+	/**
+	 * Reads every record in the log and applies it to the given ContactManagerImpl, in the order
+	 * in which they were written. A record cut short by a crash, or that fails its checksum, ends
+	 * the replay, and is truncated from the log along with anything after it. A log that follows an
+	 * older snapshot than the one loaded is emptied instead.
+	 *
+	 * @param cm the ContactManagerImpl that has been loaded from the snapshot
+	 * @param committedGeneration the generation of the snapshot loaded
+	 * @throws IOException if the log can't be read, isn't a journal, follows a later snapshot than the
+	 * one loaded or has a damaged record in the middle
+	 */
+	public synchronized void replay(ContactManagerImpl cm, long committedGeneration) throws IOException {
+		recordCount = 0;
+		oldFormat = false;
+		generation = committedGeneration;
+		if (!logFile.exists()) {
+			return;
+		}
+		long fileLength = logFile.length();
+		long validLength = 0; //the length of the log up to the end of the last good record
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+		try {
+			int first = in.read();
+			if (first >= NEW_CONTACT && first <= MEETING_NOTES) {
+				oldFormat = true;
+				replayVersion = 0;
+				replayUnchecked(cm, first, in);
+				return;
+			}
+			//a header cut short leaves no records to replay
+			if (fileLength >= 4 && ((first << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort()) != MAGIC) {
+				throw new IOException(logFile + " is not a journal");
+			}
+			if (fileLength > 4) {
+				replayVersion = in.readUnsignedByte();
+				if (replayVersion < 1 || replayVersion > VERSION) {
+					throw new IOException("Unsupported journal version " + replayVersion + " in " + logFile);
+				}
+				int headerLength = replayVersion >= 3 ? HEADER_LENGTH : OLD_HEADER_LENGTH;
+				long logGeneration = committedGeneration; //assumed for an older log, which a snapshot empties next
+				if (fileLength >= headerLength && replayVersion >= 3) {
+					logGeneration = in.readLong();
+				}
+				if (logGeneration > committedGeneration) {
+					throw new IOException(logFile + " follows a later snapshot than the one loaded");
+				}
+				if (fileLength >= headerLength && logGeneration == committedGeneration) {
+					oldFormat = replayVersion < VERSION;
+					validLength = replayRecords(cm, in, headerLength, fileLength);
+				} //otherwise the records are already in the snapshot, and the log is emptied
+			}
+		} finally {
+			in.close();
+		}
+		if (validLength < fileLength) {
+			truncateTo(validLength);
+		}
+	}
+
+	/**
+	 * Applies the records that follow the header, up to the first that is cut short or damaged.
+	 *
+	 * @return the length of the log up to the end of the last good record
+	 */
+	private long replayRecords(ContactManagerImpl cm, DataInputStream in, long validLength, long fileLength) throws IOException {
+		while (fileLength - validLength >= RECORD_HEADER_LENGTH) {
+			int length = in.readInt();
+			int expected = in.readInt();
+			if (length < 1 || length > fileLength - validLength - RECORD_HEADER_LENGTH) {
+				break; //cut short, or the length itself is damaged
+			}
+			byte[] bytes = readRecord(in, length, expected);
+			if (bytes == null) {
+				//a crash only damages the last record written, so one that is followed by another is corrupt
+				long next = validLength + RECORD_HEADER_LENGTH + length;
+				if (fileLength - next >= RECORD_HEADER_LENGTH) {
+					int nextLength = in.readInt();
+					int nextExpected = in.readInt();
+					if (nextLength >= 1 && nextLength <= fileLength - next - RECORD_HEADER_LENGTH
+							&& readRecord(in, nextLength, nextExpected) != null) {
+						throw new IOException("The record at " + validLength + " in " + logFile + " is damaged");
+					}
+				}
+				break;
+			}
+			apply(cm, new DataInputStream(new ByteArrayInputStream(bytes)));
+			validLength += RECORD_HEADER_LENGTH + length;
+			recordCount++;
+		}
+		return validLength;
+	}
+
+	/**
+	 * @return the record's bytes, or null if they fail their checksum
+	 */
+	private byte[] readRecord(DataInputStream in, int length, int expected) throws IOException {
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		checksum.reset();
+		checksum.update(bytes, 0, length);
+		return (int) checksum.getValue() == expected ? bytes : null;
+	}
+
+	/**
+	 * @return true if the log replayed was written in an older format, and should be emptied by writing a
+	 * snapshot before anything else is written to it
+	 */
+	public synchronized boolean needsSnapshot() {
+		return oldFormat;
+	}
+
+	/**
+	 * Replays a log written before records had checksums, whose first opcode has been read.
+	 */
+	private void replayUnchecked(ContactManagerImpl cm, int op, DataInputStream in) throws IOException {
+		try {
+			while (op != -1) {
+				applyOp(cm, op, in);
+				recordCount++;
+				op = in.read();
+			}
+		} catch (EOFException ex) {
+			//the last record was only partly written - everything before it has been applied
+		}
+	}
+
+	private void apply(ContactManagerImpl cm, DataInputStream in) throws IOException {
+		applyOp(cm, in.readUnsignedByte(), in);
+	}
+
+	private void applyOp(ContactManagerImpl cm, int op, DataInputStream in) throws IOException {
+		switch (op) {
+			case NEW_CONTACT: {
+				int id = in.readInt();
+				String name = readString(in);
+				cm.applyNewContact(id, name, readString(in));
+				break;
+			}
+			case FUTURE_MEETING: {
+				int id = in.readInt();
+				long millis = in.readLong();
+				int[] ids = readIds(in);
+				cm.applyFutureMeeting(id, cm.contactsForIds(ids), millis);
+				break;
+			}
+			case PAST_MEETING: {
+				int id = in.readInt();
+				long millis = in.readLong();
+				int[] ids = readIds(in);
+				cm.applyPastMeeting(id, cm.contactsForIds(ids), millis, readString(in));
+				break;
+			}
+			case MEETING_NOTES: {
+				int id = in.readInt();
+				cm.applyMeetingNotes(id, readString(in));
+				break;
+			}
+			default:
+				throw new IOException("Unknown record type " + op + " in " + logFile);
+		}
+	}
+
+	private String readString(DataInputStream in) throws IOException {
+		return replayVersion >= 2 ? ContactStoreReader.readString(in) : in.readUTF();
+	}
+
+	/**
+	 * Cuts off a torn tail left by a crash, or a record that couldn't be written, so that new records
+	 * follow the last good one.
+	 */
+	private void truncateTo(long length) throws IOException {
+		try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+			channel.truncate(length);
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Empties the log, leaving a header stamped with the given generation, and syncs it. Called once the
+	 * snapshot holds everything the log did.
+	 *
+	 * @param generation the generation of the snapshot just committed
+	 */
+	public synchronized void truncate(long generation) throws IOException {
+		close();
+		this.generation = generation;
+		FileOutputStream emptied = new FileOutputStream(logFile);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(emptied));
+			writeHeader(out);
+			out.flush();
+			emptied.getFD().sync();
+		} finally {
+			emptied.close();
+		}
+		recordCount = 0;
+		pendingWrites = 0;
+		oldFormat = false;
+		failure = null;
+	}
+
+	/**
+	 * Holds back syncing until endBatch(), so that a bulk import is synced once rather than
+	 * after every record.
+	 */
+	public synchronized void beginBatch() {
+		inBatch = true;
+	}
+
+	/**
+	 * Ends a batch, syncing the records written during it unless the policy leaves that to flush().
+	 */
+	public synchronized void endBatch() throws IOException {
+		inBatch = false;
+		if (policy.getMaxPendingWrites() > 0 && pendingWrites > 0) {
+			sync();
+		}
+	}
+
+	/**
+	 * Forces every record written so far to disk.
+	 */
+	public synchronized void sync() throws IOException {
+		if (outputStream != null && pendingWrites > 0) {
+			outputStream.flush();
+			fileStream.getFD().sync();
+		}
+		pendingWrites = 0;
+	}
+
+	/**
+	 * Syncs and closes the log file. The journal can still be written to afterwards, which reopens it.
+	 */
+	public synchronized void close() throws IOException {
+		if (outputStream != null) {
+			sync();
+			outputStream.close();
+			outputStream = null;
+			fileStream = null;
+		}
+	}
+
+	/**
+	 * @param listener the listener to tell about each record written, or null for none
+	 */
+	public synchronized void setMetricsListener(MetricsListener listener) {
+		metrics = listener;
+	}
+
+	/**
+	 * Stops the group commit timer, if there is one. Called when the journal is no longer in use.
+	 */
+	public synchronized void stopTimer() {
+		if (syncTask != null) {
+			syncTask.cancel(false);
+			syncTask = null;
+		}
+	}
+
+	/**
+	 * Opens the log, if it isn't open, and starts a new record, which is written to the log by endRecord().
+	 */
+	private DataOutputStream open() throws IOException {
+		if (oldFormat) {
+			throw new IllegalStateException("The journal must be emptied by a snapshot before it is written to");
+		}
+		if (failure != null) {
+			throw new IOException("The journal is unusable until the next snapshot", failure);
+		}
+		if (outputStream == null) {
+			fileStream = new FileOutputStream(logFile, true);
+			outputStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+			logLength = fileStream.getChannel().size();
+			if (logLength == 0) {
+				writeHeader(outputStream);
+				logLength = HEADER_LENGTH;
+			}
+		}
+		if (metrics != null) {
+			recordStartNanos = System.nanoTime();
+		}
+		recordBytes.reset();
+		return record;
+	}
+
+	private void endRecord() throws IOException {
+		record.flush();
+		checksum.reset();
+		checksum.update(recordBytes.toByteArray(), 0, recordBytes.size());
+		long recordOffset = logLength;
+		try {
+			outputStream.writeInt(recordBytes.size());
+			outputStream.writeInt((int) checksum.getValue());
+			recordBytes.writeTo(outputStream);
+			logLength += RECORD_HEADER_LENGTH + recordBytes.size();
+			pendingWrites++;
+			int maxPending = policy.getMaxPendingWrites();
+			if (maxPending > 0 && pendingWrites >= maxPending && !inBatch) {
+				sync();
+			}
+		} catch (IOException e) {
+			discard(recordOffset);
+			throw e;
+		}
+		recordCount++;
+		if (metrics != null) {
+			metrics.journalRecordWritten(RECORD_HEADER_LENGTH + recordBytes.size(), System.nanoTime() - recordStartNanos);
+		}
+	}
+
+	/**
+	 * Closes the log and cuts off the record that couldn't be written, which begins at the given offset.
+	 * If even that fails, the log is unusable until a snapshot empties it.
+	 */
+	private void discard(long recordOffset) {
+		try {
+			outputStream.close(); //writes out what's buffered, so that it can be cut off
+		} catch (IOException e) {
+			//the file is cut back to the offset next anyway
+		}
+		outputStream = null;
+		fileStream = null;
+		pendingWrites = 0;
+		try {
+			truncateTo(recordOffset);
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	private synchronized void syncQuietly() {
+		try {
+			sync();
+		} catch (IOException e) {
+			failure = e; //the records may not be on disk, which the next change to be journalled reports
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getSyncTimer() {
+		if (syncTimer == null) {
+			syncTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "contact-journal-sync");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return syncTimer;
+	}
+
+	private void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeLong(generation);
+	}
+
+	private static void writeMeeting(DataOutputStream out, int id, Set<Contact> contacts, long time) throws IOException {
+		out.writeInt(id);
+		out.writeLong(time);
+		out.writeInt(contacts.size());
+		for (Contact c : contacts) {
+			out.writeInt(c.getId());
+		}
+	}
+
+	private static int[] readIds(DataInputStream in) throws IOException {
+		int[] ids = new int[in.readInt()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = in.readInt();
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,151 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A MetricsListener that keeps the measurements it is given, and can publish them as a JMX MBean.
+ * @author Sophie Koonin
+ * @see ContactManagerImpl#setMetricsListener(MetricsListener)
+ *
+ * Each operation has its own LatencyHistogram, and bytes, records and index lookups are counted with
+ * LongAdders, so it can be shared by the threads of a ConcurrentContactManager. For example:
+ *
+ *     ContactManagerMetrics metrics = new ContactManagerMetrics();
+ *     cm.setMetricsListener(metrics);
+ *     metrics.register("main");
+ *
+ * after which the figures can be read in JConsole or any other JMX client under ContactManager:type=Metrics.
+ */
+public class ContactManagerMetrics implements MetricsListener, ContactManagerMetricsMBean {
+
+	private Map<String, LatencyHistogram> operations = new ConcurrentHashMap<String, LatencyHistogram>();
+	private Map<String, LongAdder[]> lookups = new ConcurrentHashMap<String, LongAdder[]>(); //hits, then misses
+	private LongAdder journalRecords = new LongAdder();
+	private LongAdder journalBytes = new LongAdder();
+	private LongAdder snapshots = new LongAdder();
+	private LongAdder snapshotBytes = new LongAdder();
+	private volatile long lastSnapshotBytes;
+	private volatile long loadNanos;
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 *
+	 * @param name a name to tell this ContactManager's metrics apart from any others
+	 * @return the name the MBean was registered under
+	 * @throws JMException if the name is invalid or already registered
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("ContactManager:type=Metrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public void operationCompleted(String operation, long nanos) {
+		operations.computeIfAbsent(operation, k -> new LatencyHistogram()).record(nanos);
+	}
+
+	@Override
+	public void journalRecordWritten(int bytes, long nanos) {
+		journalRecords.increment();
+		journalBytes.add(bytes);
+		operationCompleted("journal", nanos);
+	}
+
+	@Override
+	public void snapshotWritten(long bytes, long nanos) {
+		snapshots.increment();
+		snapshotBytes.add(bytes);
+		lastSnapshotBytes = bytes;
+		operationCompleted("snapshot", nanos);
+	}
+
+	@Override
+	public void indexLookup(String index, boolean hit) {
+		lookups.computeIfAbsent(index, k -> new LongAdder[] {new LongAdder(), new LongAdder()})[hit ? 0 : 1].increment();
+	}
+
+	@Override
+	public void loaded(long nanos) {
+		loadNanos = nanos;
+	}
+
+	/**
+	 * @param operation the name of an operation
+	 * @return the histogram of its latencies, or null if it hasn't been timed
+	 */
+	public LatencyHistogram getHistogram(String operation) {
+		return operations.get(operation);
+	}
+
+	public String[] getOperationNames() {
+		return operations.keySet().stream().sorted().toArray(String[]::new);
+	}
+
+	public long getOperationCount(String operation) {
+		LatencyHistogram h = operations.get(operation);
+		return h == null ? 0 : h.getCount();
+	}
+
+	public double getMeanLatencyMicros(String operation) {
+		LatencyHistogram h = operations.get(operation);
+		return h == null ? 0 : h.getMean() / 1000;
+	}
+
+	public double getLatencyMicrosAtPercentile(String operation, double percentile) {
+		LatencyHistogram h = operations.get(operation);
+		return h == null ? 0 : h.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	public long getJournalRecordsWritten() {
+		return journalRecords.sum();
+	}
+
+	public long getJournalBytesWritten() {
+		return journalBytes.sum();
+	}
+
+	public long getSnapshotsWritten() {
+		return snapshots.sum();
+	}
+
+	public long getSnapshotBytesWritten() {
+		return snapshotBytes.sum();
+	}
+
+	public long getLastSnapshotBytes() {
+		return lastSnapshotBytes;
+	}
+
+	public double getIndexHitRate(String index) {
+		LongAdder[] counts = lookups.get(index);
+		if (counts == null) {
+			return 0;
+		}
+		long hits = counts[0].sum();
+		long total = hits + counts[1].sum();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public long getIndexLookups(String index) {
+		LongAdder[] counts = lookups.get(index);
+		return counts == null ? 0 : counts[0].sum() + counts[1].sum();
+	}
+
+	public double getLoadTimeMillis() {
+		return loadNanos / 1e6;
+	}
+
+	public void reset() {
+		operations.clear();
+		lookups.clear();
+		journalRecords.reset();
+		journalBytes.reset();
+		snapshots.reset();
+		snapshotBytes.reset();
+		lastSnapshotBytes = 0;
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * The management interface of ContactManagerMetrics, as seen over JMX.
+ * @author Sophie Koonin
+ * @see ContactManagerMetrics
+ */
+public interface ContactManagerMetricsMBean {
+
+	/**
+	 * @return the names of the operations that have been timed
+	 */
+	String[] getOperationNames();
+
+	long getOperationCount(String operation);
+
+	double getMeanLatencyMicros(String operation);
+
+	/**
+	 * @param operation the name of an operation
+	 * @param percentile a percentage from 0 to 100, e.g. 99 for the 99th percentile
+	 * @return the latency of the operation at that percentile, in microseconds
+	 */
+	double getLatencyMicrosAtPercentile(String operation, double percentile);
+
+	long getJournalRecordsWritten();
+
+	long getJournalBytesWritten();
+
+	long getSnapshotsWritten();
+
+	long getSnapshotBytesWritten();
+
+	/**
+	 * @return the size of the last snapshot written, in bytes
+	 */
+	long getLastSnapshotBytes();
+
+	/**
+	 * @param index "meetings", "contacts" or "names"
+	 * @return the fraction of lookups in that index that found something, or 0 if there have been none
+	 */
+	double getIndexHitRate(String index);
+
+	long getIndexLookups(String index);
+
+	double getLoadTimeMillis();
+
+	/**
+	 * Clears every measurement except the load time.
+	 */
+	void reset();
+}
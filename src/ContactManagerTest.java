@@ -2,9 +2,11 @@ import org.junit.*;
 
 import static org.junit.Assert.*;
 
+import org.junit.rules.TemporaryFolder;
+
 import java.io.*;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.time.*;
 import java.util.*;
 
 /**
@@ -13,29 +15,23 @@ import java.util.*;
  */
 
 public class ContactManagerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File contactsFile; //in the temporary folder, so the tests never touch a store in the working directory
+	private File logFile;
+	private List<ContactManagerImpl> opened = new ArrayList<ContactManagerImpl>();
 	private ContactManager cm;
 	private Set<Contact> contacts;
 	private Contact alan;
 	private Contact sarah;
 	private Calendar todaysDate;
 
-	/**
-	 * Method to run once at start of tests to back up existing contacts.txt.
-	 * Contacts.txt is copied to contactsCOPY.txt, and deleted
-	 * When all tests are finished, file is copied back, and copy is deleted.
-	 */
-	@BeforeClass
-	public static void backupContactsTxt(){
-		try {
-			Files.copy(Paths.get("contacts.txt"),Paths.get("contactsCOPY.txt"));
-			Files.delete(Paths.get("contacts.txt"));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
 	@Before
 	public void buildUp() throws IOException {
-		cm = new ContactManagerImpl();
+		contactsFile = new File(folder.getRoot(), "contacts.txt");
+		logFile = new File(folder.getRoot(), "contacts.log");
+		cm = open();
 		contacts = new HashSet<Contact>();
 		alan = new ContactImpl(1, "Alan", "nice");
 		contacts.add(alan);
@@ -72,7 +68,7 @@ public class ContactManagerTest {
 	 */
 	@Test
 	public void testOutputFileExists(){
-		File outputFile = new File("contacts.txt");
+		File outputFile = contactsFile;
 		assertTrue(outputFile.exists());
 	}
 	/**
@@ -83,21 +79,9 @@ public class ContactManagerTest {
 		cm.addFutureMeeting(contacts, new GregorianCalendar(2015,3,2));
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,5,3), "meeting");
 		cm.flush();
-		ObjectInputStream ois = new ObjectInputStream(new FileInputStream("contacts.txt"));
-		List inputData = null;
-		try {
-			inputData = (ArrayList) ois.readObject();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				ois.close();
-			} catch (IOException ex){
-				ex.printStackTrace();
-			}
-		}
+		ContactStoreShards.Contents inputData = readContactsFile();
 
-		List<Contact> inputContactList = (ArrayList) inputData.get(2);
+		List<Contact> inputContactList = inputData.getContacts();
 
 		assertEquals(inputContactList.get(0), alan);
 	}
@@ -111,21 +95,9 @@ public class ContactManagerTest {
 		cm.addFutureMeeting(contacts, thisDate);
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,5,3), "meeting");
 		cm.flush();
-		ObjectInputStream ois = new ObjectInputStream(new FileInputStream("contacts.txt"));
-		List inputData = null;
-		try {
-			inputData = (ArrayList) ois.readObject();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				ois.close();
-			} catch (IOException ex){
-				ex.printStackTrace();
-			}
-		}
+		ContactStoreShards.Contents inputData = readContactsFile();
 
-		List<Meeting> futureMeetingList = (ArrayList) inputData.get(0);
+		List<Meeting> futureMeetingList = inputData.getFutureMeetings();
 
 		assertTrue(futureMeetingList.get(0).getDate().compareTo(thisDate) == 0);
 	}
@@ -141,21 +113,9 @@ public class ContactManagerTest {
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,7,3), "meeting three");
 
 		cm.flush();
-		ObjectInputStream ois = new ObjectInputStream(new FileInputStream("contacts.txt"));
-		List inputData = null;
-		try {
-			inputData = (ArrayList) ois.readObject();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				ois.close();
-			} catch (IOException ex){
-				ex.printStackTrace();
-			}
-		}
+		ContactStoreShards.Contents inputData = readContactsFile();
 
-		List<PastMeeting> pastMeetingList = (ArrayList) inputData.get(1);
+		List<PastMeeting> pastMeetingList = inputData.getPastMeetings();
 
 		assertEquals(pastMeetingList.get(1).getNotes(), "meeting two");
 	}
@@ -166,7 +126,7 @@ public class ContactManagerTest {
 	 */
 	@Test
 	public void testCMExistingFileContacts(){
-		ContactManager cm1 = new ContactManagerImpl();
+		ContactManager cm1 = open();
 		cm1.flush();
 		assertTrue(cm1.getContacts("Alan").contains(alan));
 	}
@@ -179,7 +139,7 @@ public class ContactManagerTest {
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,5,3), "meeting one");
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,6,3), "meeting two");
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,7,3), "meeting three");
-		ContactManager cm1 = new ContactManagerImpl();
+		ContactManager cm1 = open();
 		cm1.addNewPastMeeting(contacts, new GregorianCalendar(2012,4,5), "meeting four");
 		cm1.flush();
 		assertEquals(cm1.getPastMeeting(4).getNotes(), "meeting four");
@@ -192,7 +152,7 @@ public class ContactManagerTest {
 	@Test
 	public void testCMExistingFileFutureMeeting(){
 		cm.addFutureMeeting(contacts, new GregorianCalendar(2015,3,2));
-		ContactManager cm1 = new ContactManagerImpl();
+		ContactManager cm1 = open();
 		assertEquals(cm1.getFutureMeetingList(new GregorianCalendar(2015,3,2)).get(0).getId(),1);
 	}
 
@@ -205,46 +165,115 @@ public class ContactManagerTest {
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,6,3), "meeting two");
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,7,3), "meeting three");
 		cm.addFutureMeeting(contacts, new GregorianCalendar(2015,3,2));
-		ContactManager cm1 = new ContactManagerImpl();
+		ContactManager cm1 = open();
 		assertEquals(cm1.getPastMeeting(2).getNotes(), "meeting two");
 	}
 
 
 
 	/**
-	 * Test that ContactManager is actually writing something to file, and check it's the right class
+	 * Test that a memory-mapped ContactManager reads past meeting notes from the snapshot,
+	 * and keeps them readable after the snapshot has been replaced
+	 */
+	@Test
+	public void testCMMemoryMappedPastMeeting(){
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,5,3), "meeting one");
+		cm.flush();
+		ContactManager cm1 = open(DurabilityPolicy.everyWrite(), true, Clock.systemDefaultZone(), false);
+		cm1.addNewContact("Buffy", "vampire slayer");
+		cm1.flush();
+		assertEquals(cm1.getPastMeeting(1).getNotes(), "meeting one");
+	}
+
+	/**
+	 * Test that a past meeting read from a memory-mapped snapshot is serialized with its notes
 	 */
 	@Test
-	public void testClassOfObjectWrittenToFile() throws IOException{
+	public void testMemoryMappedPastMeetingSerialization() throws IOException, ClassNotFoundException{
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,5,3), "meeting one");
+		cm.flush();
+		PastMeeting mapped = open(DurabilityPolicy.everyWrite(), true, Clock.systemDefaultZone(), false).getPastMeeting(1);
+		ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
+		ObjectOutputStream objOutput = new ObjectOutputStream(byteOutput);
+		objOutput.writeObject(mapped);
+		objOutput.close();
+		ObjectInputStream objInput = new ObjectInputStream(new ByteArrayInputStream(byteOutput.toByteArray()));
+		PastMeeting readMeeting = (PastMeeting) objInput.readObject();
+		assertEquals(readMeeting.getNotes(), "meeting one");
+		assertEquals(readMeeting.getContacts(), contacts);
+		assertEquals(readMeeting.getDate(), mapped.getDate());
+	}
+
+	/**
+	 * Test that notes added since the last snapshot are replayed from the journal
+	 */
+	@Test
+	public void testCMExistingFileMeetingNotes(){
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,5,3), "meeting one");
+		cm.addMeetingNotes(1, "follow-up");
+		ContactManager cm1 = open();
+		assertEquals(cm1.getPastMeeting(1).getNotes(), "meeting one, follow-up");
+	}
+
+	/**
+	 * Test that changes made under the flush-only durability policy are on disk after flush()
+	 */
+	@Test
+	public void testFlushOnlyPolicyPersistsOnFlush(){
+		ContactManager cm1 = open(DurabilityPolicy.onFlush());
+		cm1.addNewContact("Buffy", "vampire slayer");
+		cm1.flush();
+		ContactManager cm2 = open();
+		assertFalse(cm2.getContacts("Buffy").isEmpty());
+	}
+
+	/**
+	 * Test that ContactManager is actually writing something to file, and check it's in the contact store format
+	 */
+	@Test
+	public void testFormatOfFileWritten() throws IOException{
 		cm.addFutureMeeting(contacts, new GregorianCalendar(2015,3,2));
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,5,3), "meeting");
-		ObjectInputStream ois = new ObjectInputStream(new FileInputStream("contacts.txt"));
-		List inputData = null;
+		cm.flush();
+		DataInputStream dis = new DataInputStream(new FileInputStream(contactsFile));
 		try {
-			inputData = (ArrayList) ois.readObject();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+			assertEquals(dis.readInt(), ContactStoreWriter.MAGIC);
+			assertEquals(dis.readUnsignedByte(), ContactStoreWriter.VERSION);
+		} finally {
+			dis.close();
 		}
-
-		assertTrue(inputData.get(0).getClass().equals(inputData.getClass())); //check that the object is a List
 	}
 
 	/**
-	 * Test that the List written to file contains the right number of objects
+	 * Test that the file written contains the right number of objects
 	 */
 	@Test
-	public void testSizeOfListInFile() throws IOException {
+	public void testSizeOfListsInFile() throws IOException {
 		cm.addFutureMeeting(contacts, new GregorianCalendar(2015,3,2));
 		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,5,3), "meeting");
-		ObjectInputStream ois = new ObjectInputStream(new FileInputStream("contacts.txt"));
-		List inputData = null;
-		try {
-			inputData = (ArrayList) ois.readObject();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+		cm.flush();
+		ContactStoreShards.Contents inputData = readContactsFile();
+		assertEquals(2, inputData.getContacts().size());
+		assertEquals(1, inputData.getFutureMeetings().size());
+		assertEquals(1, inputData.getPastMeetings().size());
+	}
+
+	/**
+	 * Test that a meeting read from file shares its contacts with the contact list rather than copying them
+	 */
+	@Test
+	public void testFileMeetingsShareContacts() throws IOException {
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013,5,3), "meeting");
+		cm.flush();
+		ContactStoreShards.Contents inputData = readContactsFile();
+		Contact readAlan = inputData.getContacts().get(0);
+		for (Contact c : inputData.getPastMeetings().get(0).getContacts()) {
+			if (c.getId() == 1) {
+				assertSame(c, readAlan);
+			}
 		}
-		assertEquals(3, inputData.size());
 	}
+
 	/**
 	 * Test that addFutureMeeting works as expected
 	 */
@@ -292,6 +321,29 @@ public class ContactManagerTest {
 		assertTrue(getCont.isEmpty());
 	}
 
+	/**
+	 * Test that getContacts(String) finds contacts whose name contains the string
+	 */
+	@Test
+	public void testGetContactsWithSubstring(){
+		cm.addNewContact("Alan Turing", "codebreaker");
+		assertEquals(cm.getContacts("lan").size(), 2);
+		assertTrue(cm.getContacts("lan").contains(alan));
+		assertTrue(cm.getContacts("alan").isEmpty());
+	}
+
+	/**
+	 * Test the case-insensitive and prefix searches
+	 */
+	@Test
+	public void testGetContactsIgnoreCaseAndPrefix(){
+		ContactManagerImpl cmi = open();
+		cmi.addNewContact("Alan Turing", "codebreaker");
+		assertEquals(cmi.getContacts("ALAN", true).size(), 2);
+		assertEquals(cmi.getContactsStartingWith("sar", true).get(0), sarah);
+		assertTrue(cmi.getContactsStartingWith("Turing", false).isEmpty());
+	}
+
 	@Test
 	public void testGetContactsBadName(){
 		Set<Contact> getCont = cm.getContacts("Gandalf");
@@ -328,6 +380,26 @@ public class ContactManagerTest {
 		Set<Contact> getCont = cm.getContacts(0);
 	}
 
+	/**
+	 * Check that getContacts(int) throws IllegalArgumentException
+	 * if only one of several ids doesn't belong to any contact
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetContactsWithOneIllegalId(){
+		Set<Contact> getCont = cm.getContacts(1, 12);
+	}
+
+	/**
+	 * Test that getContactList(int) returns contacts in the order the ids were given
+	 */
+	@Test
+	public void testGetContactListRequestOrder(){
+		List<Contact> getCont = open().getContactList(2, 1, 2);
+		assertEquals(getCont.size(), 3);
+		assertEquals(getCont.get(0), sarah);
+		assertEquals(getCont.get(1), alan);
+	}
+
 	/**
 	 * Test that getContacts(String) throws NullPointerException
 	 * if argument is null
@@ -397,6 +469,119 @@ public class ContactManagerTest {
 		assertFalse(getCont.isEmpty());
 	}
 
+	/**
+	 * Test that contacts added from several threads at once through ConcurrentContactManager
+	 * are all kept, each with its own ID
+	 */
+	@Test
+	public void testConcurrentAddNewContact() throws InterruptedException {
+		ContactManager ccm = new ConcurrentContactManager(open(DurabilityPolicy.onFlush()));
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			String name = "Thread" + t + "-";
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 100; i++) {
+					ccm.addNewContact(name + i, "");
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Set<String> names = new HashSet<String>();
+		for (int id = 3; id <= 402; id++) {
+			names.add(ccm.getContacts(id).iterator().next().getName());
+		}
+		assertEquals(names.size(), 400);
+	}
+
+	/**
+	 * Test that a ConcurrentContactManager can be queried from inside a forEach while a meeting falls due,
+	 * rather than deadlocking, and that it is promoted once the forEach has returned; but not changed
+	 */
+	@Test(timeout = 10000)
+	public void testConcurrentQueryFromForEach(){
+		long[] now = {System.currentTimeMillis()};
+		Clock clock = new Clock() {
+			public ZoneId getZone() {
+				return ZoneId.systemDefault();
+			}
+			public Clock withZone(ZoneId zone) {
+				return this;
+			}
+			public Instant instant() {
+				return Instant.ofEpochMilli(now[0]);
+			}
+		};
+		ConcurrentContactManager ccm = new ConcurrentContactManager(open(DurabilityPolicy.everyWrite(), false, clock, false));
+		Calendar inAnHour = new GregorianCalendar();
+		inAnHour.setTimeInMillis(now[0] + 3600000);
+		int id = ccm.addFutureMeeting(contacts, inAnHour);
+		List<Integer> pastMeetings = new ArrayList<Integer>();
+		ccm.forEachContact(c -> {
+			now[0] += 7200000; //the meeting falls due while the forEach holds the read lock
+			pastMeetings.add(ccm.getPastMeetingList(c).size());
+		});
+		assertEquals(pastMeetings, Arrays.asList(0, 0));
+		assertEquals(ccm.getPastMeeting(id).getNotes(), "");
+		try {
+			ccm.forEachContact(c -> ccm.addNewContact("Carol", "from inside a forEach"));
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(ccm.getContacts("Carol").isEmpty());
+		}
+	}
+
+	/**
+	 * Test that addNewContacts() imports every record of a CSV file, including quoted fields
+	 */
+	@Test
+	public void testAddNewContactsFromCsv(){
+		String csv = "name,notes\nBuffy,vampire slayer\n\"Summers, Dawn\",\"the \"\"key\"\"\"\n";
+		int added = cm.addNewContacts(new CsvContactReader(new StringReader(csv), true));
+		assertEquals(added, 2);
+		Contact dawn = cm.getContacts(4).iterator().next();
+		assertEquals(dawn.getName(), "Summers, Dawn");
+		assertEquals(dawn.getNotes(), "the \"key\"");
+	}
+
+	/**
+	 * Test that a bulk import too big to journal fails if the snapshot it relies on can't be written, and that
+	 * the contacts left out of the journal are journalled after all
+	 */
+	@Test
+	public void testAddNewContactsSnapshotFails(){
+		List<String[]> rows = new ArrayList<String[]>();
+		for (int i = 0; i < ContactManagerImpl.COMPACTION_THRESHOLD + 500; i++) {
+			rows.add(new String[] {"Imported" + i, "bulk"});
+		}
+		File blocked = new File(folder.getRoot(), "contacts.txt.tmp");
+		assertTrue(blocked.mkdir()); //so the new manifest can't be written
+		try {
+			cm.addNewContacts(rows.iterator());
+			fail();
+		} catch (UncheckedIOException e) {
+			assertEquals(cm.getContacts("Imported").size(), rows.size()); //added all the same
+		}
+		assertTrue(blocked.delete());
+		Contact last = open().getContacts(rows.size() + 2).iterator().next();
+		assertEquals(last.getName(), "Imported" + (rows.size() - 1));
+	}
+
+	/**
+	 * Test that addNewPastMeetings() rejects a meeting with an unknown contact
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddNewPastMeetingsIllegalContacts(){
+		Set<Contact> badCont = new HashSet<Contact>();
+		badCont.add(new ContactImpl(55, "Mary", "made up"));
+		List<PastMeeting> meetings = new ArrayList<PastMeeting>();
+		meetings.add(new PastMeetingImpl(0, contacts, new GregorianCalendar(2013,4,2), "fine"));
+		meetings.add(new PastMeetingImpl(0, badCont, new GregorianCalendar(2013,4,2), "this should break"));
+		cm.addNewPastMeetings(meetings.iterator());
+	}
+
 	/**
 	 * Test that addNewContact throws null pointer exception with null name or notes
 	 */
@@ -478,6 +663,19 @@ public class ContactManagerTest {
 		List<PastMeeting> pml = cm.getPastMeetingList(nigella);
 	}
 
+	/**
+	 * Test that getPastMeetingList and getFutureMeetingList(Contact) throw IllegalArgumentException
+	 * if the contact is null, as they do for any contact that doesn't exist
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetPastMeetingListNullContact(){
+		cm.getPastMeetingList(null);
+	}
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetFutureMeetingListNullContact(){
+		cm.getFutureMeetingList((Contact) null);
+	}
+
 	/**
 	 * Test that getFutureMeetingList(Calendar date) works as expected with a future date
 	 */
@@ -516,6 +714,308 @@ public class ContactManagerTest {
 		PastMeeting pm = (PastMeeting) pastList.get(0);
 		assertEquals(pm.getNotes(), "meeting one");
 	}
+	/**
+	 * Test that getMeetingList(Calendar, Calendar) returns past and future meetings in the range, in order
+	 */
+	@Test
+	public void testGetMeetingListRange(){
+		ContactManagerImpl cmi = open();
+		cmi.addFutureMeeting(contacts, new GregorianCalendar(2030, 3, 4));
+		cmi.addNewPastMeeting(contacts, new GregorianCalendar(2013, 3, 4), "meeting one");
+		cmi.addNewPastMeeting(contacts, new GregorianCalendar(2011, 3, 4), "out of range");
+		cmi.addFutureMeeting(contacts, new GregorianCalendar(2031, 3, 4));
+		List<Meeting> range = cmi.getMeetingList(new GregorianCalendar(2012, 0, 1), new GregorianCalendar(2031, 3, 4));
+		assertEquals(range.size(), 2);
+		assertEquals(range.get(0).getId(), 2);
+		assertEquals(range.get(1).getId(), 1);
+	}
+
+	/**
+	 * Test that a future meeting becomes a past meeting, with no notes, once the clock passes its date
+	 */
+	@Test
+	public void testFutureMeetingPromotedWhenDue(){
+		Clock now = Clock.fixed(Instant.now(), ZoneId.systemDefault());
+		ContactManagerImpl cmi = open(DurabilityPolicy.everyWrite(), false, now, false);
+		Calendar inAnHour = new GregorianCalendar();
+		inAnHour.setTimeInMillis(now.millis() + 3600000);
+		int id = cmi.addFutureMeeting(contacts, inAnHour);
+		assertNotNull(cmi.getFutureMeeting(id));
+		ContactManagerImpl later = open(DurabilityPolicy.everyWrite(), false, Clock.offset(now, Duration.ofHours(2)), false);
+		assertEquals(later.getPastMeeting(id).getNotes(), "");
+		assertTrue(later.getFutureMeetingList(alan).isEmpty());
+		later.addMeetingNotes(id, "went well");
+		assertEquals(later.getPastMeetingList(alan).get(0).getNotes(), "went well");
+	}
+
+	/**
+	 * Test that getSharedMeetingList() only returns meetings with every contact, in order
+	 */
+	@Test
+	public void testGetSharedMeetingList(){
+		cm.addNewContact("Carol", "new");
+		Contact carol = cm.getContacts(3).iterator().next();
+		Set<Contact> alanAndCarol = new HashSet<Contact>();
+		alanAndCarol.add(alan);
+		alanAndCarol.add(carol);
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013, 3, 4), "alan and sarah");
+		cm.addNewPastMeeting(alanAndCarol, new GregorianCalendar(2013, 3, 5), "alan and carol");
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2012, 3, 4), "earlier");
+		List<Meeting> shared = ((ContactManagerImpl) cm).getSharedMeetingList(alan, sarah);
+		assertEquals(shared.size(), 2);
+		assertEquals(shared.get(0).getId(), 3);
+		assertEquals(shared.get(1).getId(), 1);
+		assertEquals(((ContactManagerImpl) cm).getSharedMeetingList(sarah, carol).size(), 0);
+	}
+
+	/**
+	 * Test that a metrics listener is told about operations, journal records and index lookups
+	 */
+	@Test
+	public void testMetricsListener(){
+		ContactManagerImpl cmi = (ContactManagerImpl) cm;
+		ContactManagerMetrics metrics = new ContactManagerMetrics();
+		cmi.setMetricsListener(metrics);
+		cmi.addNewPastMeeting(contacts, new GregorianCalendar(2013, 3, 4), "meeting");
+		cmi.getMeeting(1);
+		cmi.getMeeting(2);
+		assertEquals(metrics.getOperationCount("addNewPastMeeting"), 1);
+		assertEquals(metrics.getOperationCount("getMeeting"), 2);
+		assertEquals(metrics.getJournalRecordsWritten(), 1);
+		assertTrue(metrics.getJournalBytesWritten() > 0);
+		assertEquals(metrics.getIndexHitRate("meetings"), 0.5, 0.0);
+		cmi.flush();
+		assertTrue(metrics.getLastSnapshotBytes() > contactsFile.length()); //the shard it rewrote, too
+	}
+
+	/**
+	 * Test that past meetings are written to a shard for each month, and that a snapshot only rewrites
+	 * the meeting shards that changed, along with the contacts
+	 */
+	@Test
+	public void testSnapshotShards() throws IOException{
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013, 3, 4), "april");
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013, 4, 4), "may");
+		cm.flush();
+		ContactStoreShards shards = new ContactStoreShards(contactsFile);
+		assertEquals(shards.load(false).getPastMeetings().size(), 2);
+		assertTrue(shards.getShardNames().contains("past-2013-04"));
+		assertTrue(shards.getShardNames().contains("past-2013-05"));
+		String[] before = folder.getRoot().list();
+		cm.addMeetingNotes(2, "more");
+		cm.flush();
+		Set<String> added = new HashSet<String>(Arrays.asList(folder.getRoot().list()));
+		added.removeAll(Arrays.asList(before));
+		assertEquals(added.size(), 2); //only May's shard was rewritten, and the contacts
+		assertTrue(added.stream().anyMatch(name -> name.contains("past-2013-05")));
+		assertTrue(added.stream().anyMatch(name -> name.contains("contacts.contacts")));
+		ContactManager reloaded = open();
+		assertEquals(reloaded.getPastMeeting(2).getNotes(), "may, more");
+		assertEquals(reloaded.getPastMeeting(1).getNotes(), "april");
+	}
+
+	/**
+	 * Test that a ContactManagerImpl keeping its meetings in a ColumnarMeetingStore stores, lists and
+	 * reloads them as the default one does
+	 */
+	@Test
+	public void testColumnar(){
+		cm.flush();
+		ContactManagerImpl cmi = open(DurabilityPolicy.everyWrite(), false, Clock.systemDefaultZone(), true);
+		Calendar future = new GregorianCalendar();
+		future.add(Calendar.YEAR, 1);
+		int futureId = cmi.addFutureMeeting(contacts, future);
+		cmi.addNewPastMeeting(contacts, new GregorianCalendar(2013, 5, 4), "first");
+		cmi.addMeetingNotes(futureId + 1, "second");
+		assertEquals(cmi.getFutureMeetingList(alan).size(), 1);
+		assertEquals(cmi.getFutureMeetingList(alan).get(0), cmi.getMeeting(futureId));
+		assertEquals(cmi.getPastMeetingList(alan).get(0).getNotes(), "first, second");
+		cmi.flush();
+		ContactManagerImpl reloaded = open(DurabilityPolicy.everyWrite(), false, Clock.systemDefaultZone(), true);
+		assertEquals(reloaded.getPastMeeting(futureId + 1).getNotes(), "first, second");
+		assertEquals(reloaded.getFutureMeeting(futureId).getContacts(), contacts);
+		assertEquals(reloaded.getPastMeetingList(sarah).size(), 1);
+	}
+
+	/**
+	 * Test that close() syncs a journal written under a group commit policy
+	 */
+	@Test
+	public void testClose(){
+		cm.flush();
+		ContactManagerImpl cmi = open(DurabilityPolicy.groupCommit(100, 60000));
+		cmi.addNewContact("Carol", "closed");
+		cmi.close();
+		assertEquals(open().getContacts("Carol").size(), 1);
+	}
+
+	/**
+	 * Test that flush() fails if the snapshot can't be written, having synced the journal even under the
+	 * flush-only policy
+	 */
+	@Test
+	public void testFlushSnapshotFails(){
+		ContactManagerImpl cmi = open(DurabilityPolicy.onFlush());
+		cmi.addNewContact("Carol", "journalled");
+		File blocked = new File(folder.getRoot(), "contacts.txt.tmp");
+		assertTrue(blocked.mkdir()); //so the new manifest can't be written
+		try {
+			cmi.flush();
+			fail();
+		} catch (UncheckedIOException e) {
+			assertTrue(logFile.length() > ContactManagerJournal.HEADER_LENGTH);
+		}
+		assertTrue(blocked.delete());
+		assertEquals(open().getContacts("Carol").size(), 1);
+	}
+
+	/**
+	 * Test that notes added to a contact through the Contact itself are written by flush()
+	 */
+	@Test
+	public void testContactNotesFlushed(){
+		cm.flush();
+		cm.getContacts("Alan").iterator().next().addNotes("tall");
+		cm.flush();
+		ContactManager reloaded = open();
+		assertEquals(reloaded.getContacts("Alan").iterator().next().getNotes(), "nice, tall");
+	}
+
+	/**
+	 * Test that a record cut short at the end of the journal, as a crash while writing it would leave, is
+	 * truncated on reload, so that records added afterwards follow the last good one
+	 */
+	@Test
+	public void testTornJournalTail() throws IOException{
+		cm.addNewContact("Carol", "journalled");
+		long goodLength = logFile.length();
+		try (FileOutputStream log = new FileOutputStream(logFile, true)) {
+			log.write(new byte[] {0, 0, 0, 20, 1, 2, 3}); //the start of a record
+		}
+		ContactManager reloaded = open();
+		assertEquals(reloaded.getContacts("Carol").size(), 1);
+		assertEquals(logFile.length(), goodLength);
+		reloaded.addNewContact("Dave", "after the crash");
+		assertEquals(open().getContacts("Dave").size(), 1);
+	}
+
+	/**
+	 * Test that a journal record that fails its checksum is not replayed
+	 */
+	@Test
+	public void testJournalChecksum() throws IOException{
+		cm.addNewContact("Carol", "journalled");
+		cm.addNewContact("Dave", "damaged");
+		try (RandomAccessFile log = new RandomAccessFile(logFile, "rw")) {
+			log.seek(log.length() - 1);
+			int last = log.read();
+			log.seek(log.length() - 1);
+			log.write(last ^ 1);
+		}
+		ContactManager reloaded = open();
+		assertEquals(reloaded.getContacts("Carol").size(), 1);
+		assertEquals(reloaded.getContacts("Dave").size(), 0);
+	}
+
+	/**
+	 * Test that a journal left behind by a crash between committing a snapshot and emptying the journal
+	 * is not replayed on top of the snapshot that already holds its records
+	 */
+	@Test
+	public void testJournalAlreadyInSnapshot() throws IOException{
+		cm.addNewContact("Carol", "journalled");
+		byte[] log = Files.readAllBytes(logFile.toPath());
+		cm.flush();
+		Files.write(logFile.toPath(), log);
+		ContactManager reloaded = open();
+		assertEquals(reloaded.getContacts("Carol").size(), 1);
+		assertEquals(reloaded.getContacts("Carol").iterator().next().getId(), 3);
+		reloaded.addNewContact("Dave", "after the crash");
+		assertEquals(reloaded.getContacts("Dave").iterator().next().getId(), 4);
+	}
+
+	/**
+	 * Test that a damaged journal record followed by good ones fails the load, rather than the good
+	 * records being cut off
+	 */
+	@Test(expected = UncheckedIOException.class)
+	public void testJournalDamagedRecord() throws IOException{
+		cm.addNewContact("Carol", "damaged");
+		long damaged = logFile.length() - 1;
+		cm.addNewContact("Dave", "journalled");
+		try (RandomAccessFile log = new RandomAccessFile(logFile, "rw")) {
+			log.seek(damaged);
+			int last = log.read();
+			log.seek(damaged);
+			log.write(last ^ 1);
+		}
+		open();
+	}
+
+	/**
+	 * Test that a journal file that doesn't start with the journal's magic number fails the load
+	 */
+	@Test(expected = UncheckedIOException.class)
+	public void testNotAJournal() throws IOException{
+		Files.write(logFile.toPath(), "not a journal".getBytes("UTF-8"));
+		open();
+	}
+
+	/**
+	 * Test that notes too long for writeUTF() are journalled, and that the IDs given after a reload
+	 * follow the highest ones loaded rather than the number loaded
+	 */
+	@Test
+	public void testJournalLongNotes(){
+		char[] longNotes = new char[70000];
+		Arrays.fill(longNotes, 'n');
+		cm.addNewContact("Carol", new String(longNotes));
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013, 5, 4), new String(longNotes));
+		ContactManager reloaded = open();
+		Contact carol = reloaded.getContacts("Carol").iterator().next();
+		assertEquals(carol.getNotes(), new String(longNotes));
+		assertEquals(reloaded.getPastMeeting(1).getNotes(), new String(longNotes));
+		reloaded.addNewContact("Dave", "after the reload");
+		Contact dave = reloaded.getContacts("Dave").iterator().next();
+		assertTrue(dave.getId() > carol.getId());
+	}
+
+	/**
+	 * Test that a reloaded ContactManagerImpl can be used straight away, while the indexes by name, contact
+	 * and date are built in the background
+	 */
+	@Test
+	public void testUseWhileIndexing(){
+		for (int i = 0; i < 100; i++) {
+			cm.addNewPastMeeting(contacts, new GregorianCalendar(2013, i % 12, 4), "meeting " + i);
+		}
+		cm.flush();
+		cm.addNewContact("Carol", "journalled");
+		ContactManager reloaded = open();
+		assertEquals(reloaded.getPastMeeting(50).getNotes(), "meeting 49");
+		reloaded.addNewContact("Dave", "added while indexing");
+		assertEquals(reloaded.getContacts("Carol").size(), 1);
+		assertEquals(reloaded.getContacts("Dave").size(), 1);
+		assertEquals(reloaded.getPastMeetingList(alan).size(), 100);
+	}
+
+	/**
+	 * Test that the export streams return everything, in order, without building lists first
+	 */
+	@Test
+	public void testStreamMeetings(){
+		ContactManagerImpl cmi = open();
+		cmi.addNewPastMeeting(contacts, new GregorianCalendar(2013, 3, 4, 10, 0), "later");
+		cmi.addNewPastMeeting(contacts, new GregorianCalendar(2013, 3, 4, 9, 0), "earlier");
+		cmi.addFutureMeeting(contacts, new GregorianCalendar(2030, 3, 4));
+		int[] past = cmi.streamPastMeetings().mapToInt(Meeting::getId).toArray();
+		assertArrayEquals(new int[] {2, 1}, past);
+		int[] all = cmi.streamMeetings(new GregorianCalendar(2013, 3, 4, 9, 30), new GregorianCalendar(2031, 0, 1)).mapToInt(Meeting::getId).toArray();
+		assertArrayEquals(new int[] {1, 3}, all);
+		int[] contactIds = cmi.streamContacts().mapToInt(Contact::getId).toArray();
+		assertArrayEquals(new int[] {1, 2}, contactIds);
+	}
+
 	/**
 	 * Test that getFutureMeetingList(Contact contact) works as expected)
 	 *
@@ -553,14 +1053,27 @@ public class ContactManagerTest {
 
 	}
 
+	/**
+	 * Test that getPastMeetingList(Contact contact) sorts meetings chronologically
+	 */
+	@Test
+	public void testGetPastMeetingListChronologicalSort(){
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2013, 3, 4), "meeting two");
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2012, 3, 4), "meeting one");
+		cm.addNewPastMeeting(contacts, new GregorianCalendar(2014, 3, 4), "meeting three");
+		List<PastMeeting> pml = cm.getPastMeetingList(sarah);
+		assertEquals(pml.get(0).getNotes(), "meeting one");
+		assertEquals(pml.get(2).getNotes(), "meeting three");
+	}
+
 	/**
 	 * Test that init with an empty contacts.txt won't break ContactManager
 	 */
 	@Test
 	public void testEmptyContactsTxtInit() throws IOException {
-		Files.delete(Paths.get("contacts.txt"));
-		Files.createFile(Paths.get("contacts.txt"));
-		ContactManager cm1 = new ContactManagerImpl();
+		new ContactStoreShards(contactsFile).deleteAll();
+		Files.createFile(contactsFile.toPath());
+		ContactManager cm1 = open();
 		Contact fred = new ContactImpl(1, "Fred", "notes");
 		cm1.addNewContact("Fred", "notes");
 		assertTrue(cm1.getContacts(1).contains(fred));
@@ -669,28 +1182,40 @@ public class ContactManagerTest {
 		assertNull(cm.getPastMeeting(88));
 	}
 
-	@After
-	public void tearDown(){
-		cm.flush();
-		try {
-			Files.delete(Paths.get("contacts.txt"));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Reads contacts.txt and its shards with ContactStoreShards
+	 */
+	private ContactStoreShards.Contents readContactsFile() throws IOException {
+		return new ContactStoreShards(contactsFile).load(false);
+	}
+
+	private ContactManagerImpl open() {
+		return open(DurabilityPolicy.everyWrite());
+	}
+
+	private ContactManagerImpl open(DurabilityPolicy policy) {
+		return open(policy, false, Clock.systemDefaultZone(), false);
 	}
 
 	/**
-	 * Method to be run at very end after all tests have completed, to restore original contacts.txt
+	 * Opens a ContactManagerImpl on the store in the temporary folder. Only one may use a store at a time,
+	 * so every one the test opened before is closed first.
 	 */
-	@AfterClass
-	public static void restoreContactsTxt(){
-		try {
-			Files.copy(Paths.get("contactsCOPY.txt"),Paths.get("contacts.txt"));
-			Files.delete(Paths.get("contactsCOPY.txt"));
-		} catch (IOException ex){
-			ex.printStackTrace();
+	private ContactManagerImpl open(DurabilityPolicy policy, boolean memoryMapped, Clock clock, boolean columnar) {
+		closeAll();
+		ContactManagerImpl cmi = new ContactManagerImpl(contactsFile, policy, memoryMapped, clock, columnar);
+		opened.add(cmi);
+		return cmi;
+	}
+
+	private void closeAll() {
+		for (ContactManagerImpl cmi : opened) {
+			cmi.close();
 		}
 	}
 
+	@After
+	public void tearDown(){
+		closeAll(); //the temporary folder is deleted afterwards
+	}
 }
-
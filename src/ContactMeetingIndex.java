@@ -0,0 +1,94 @@
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An inverted index from contact ID to the meetings that contact takes part in.
+ * @author Sophie Koonin
+ * @see MeetingTimeline
+ *
+ * ContactManagerImpl keeps one of these for future meetings and one for past meetings, so that the
+ * meetings with a given contact can be listed in date order without looking at anybody else's.
+ *
+ * Each contact's meeting IDs are also kept in an IntBitmap, so the meetings that several contacts have
+ * in common are found by intersecting their bitmaps.
+ */
+public class ContactMeetingIndex {
+
+	private Map<Integer, MeetingTimeline> timelines = new HashMap<Integer, MeetingTimeline>();
+	private Map<Integer, IntBitmap> meetingIds = new HashMap<Integer, IntBitmap>();
+
+	/**
+	 * Adds a meeting to the timeline of each of its participants.
+	 *
+	 * @param meeting the meeting to add
+	 */
+	public void add(Meeting meeting) {
+		long time = MeetingImpl.timeOf(meeting);
+		for (Contact c : meeting.getContacts()) {
+			timelines.computeIfAbsent(c.getId(), k -> new MeetingTimeline()).add(time, meeting.getId());
+			meetingIds.computeIfAbsent(c.getId(), k -> new IntBitmap()).add(meeting.getId());
+		}
+	}
+
+	/**
+	 * Adds many meetings, in any order, appending each to its participants' timelines and then sorting
+	 * every timeline once, rather than inserting each meeting in its place.
+	 *
+	 * @param meetings the meetings to add
+	 */
+	public void addAll(Collection<? extends Meeting> meetings) {
+		for (Meeting meeting : meetings) {
+			long time = MeetingImpl.timeOf(meeting);
+			for (Contact c : meeting.getContacts()) {
+				timelines.computeIfAbsent(c.getId(), k -> new MeetingTimeline()).append(time, meeting.getId());
+				meetingIds.computeIfAbsent(c.getId(), k -> new IntBitmap()).add(meeting.getId());
+			}
+		}
+		timelines.values().forEach(MeetingTimeline::sort);
+	}
+
+	/**
+	 * Removes a meeting from the timeline of each of its participants.
+	 *
+	 * @param meeting the meeting to remove
+	 */
+	public void remove(Meeting meeting) {
+		long time = MeetingImpl.timeOf(meeting);
+		for (Contact c : meeting.getContacts()) {
+			MeetingTimeline timeline = timelines.get(c.getId());
+			if (timeline != null) {
+				timeline.remove(time, meeting.getId());
+				meetingIds.get(c.getId()).remove(meeting.getId());
+			}
+		}
+	}
+
+	/**
+	 * Returns the meetings of the contact with the given ID, in chronological order.
+	 *
+	 * @param contactId the ID of the contact
+	 * @return the contact's meetings, or null if there are none
+	 */
+	public MeetingTimeline get(int contactId) {
+		return timelines.get(contactId);
+	}
+
+	/**
+	 * Returns the IDs of the meetings that every one of the given contacts takes part in.
+	 *
+	 * @param contactIds the IDs of the contacts
+	 * @return the IDs of their shared meetings, which may be empty and must not be changed
+	 */
+	public IntBitmap getShared(int... contactIds) {
+		IntBitmap shared = null;
+		for (int id : contactIds) {
+			IntBitmap ids = meetingIds.get(id);
+			if (ids == null) {
+				return new IntBitmap();
+			}
+			shared = shared == null ? ids : IntBitmap.and(shared, ids);
+		}
+		return shared == null ? new IntBitmap() : shared;
+	}
+}
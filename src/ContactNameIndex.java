@@ -0,0 +1,121 @@
+import java.util.*;
+
+/**
+ * A search index over contact names, used by ContactManagerImpl to find contacts by part of their name.
+ * @author Sophie Koonin
+ * @see ContactTable
+ *
+ * Every substring of up to MAX_GRAM characters of each (lower-cased) name is indexed, pointing to the
+ * IDs of the contacts whose names contain it. A query of up to MAX_GRAM characters is then a single
+ * lookup, and a longer query intersects the lists for each of its MAX_GRAM-character substrings. The
+ * contacts found are checked against the full query, so the index only has to narrow the search down.
+ */
+public class ContactNameIndex {
+
+	static final int MAX_GRAM = 3;
+
+	private ContactTable contacts;
+	private Map<String, Postings> grams = new HashMap<String, Postings>();
+
+	/**
+	 * @param contacts the table that the indexed contacts are stored in
+	 */
+	public ContactNameIndex(ContactTable contacts) {
+		this.contacts = contacts;
+	}
+
+	/**
+	 * Adds a contact's name to the index.
+	 *
+	 * @param contact the contact to add
+	 */
+	public void add(Contact contact) {
+		String name = normalise(contact.getName());
+		for (int i = 0; i < name.length(); i++) {
+			for (int n = 1; n <= MAX_GRAM && i + n <= name.length(); n++) {
+				grams.computeIfAbsent(name.substring(i, i + n), k -> new Postings()).add(contact.getId());
+			}
+		}
+	}
+
+	/**
+	 * Finds the contacts whose names contain (or start with) the given text.
+	 *
+	 * An empty query matches nothing, as ContactManager#getContacts(String) documents.
+	 *
+	 * @param query the text to search for
+	 * @param prefix true to only match names that start with the text
+	 * @param ignoreCase true to ignore the case of the text and the names
+	 * @return the matching contacts, in order of ID
+	 */
+	public List<Contact> search(String query, boolean prefix, boolean ignoreCase) {
+		List<Contact> result = new ArrayList<Contact>();
+		if (query.isEmpty()) {
+			return result;
+		}
+		String normalised = normalise(query);
+		List<Postings> lists = new ArrayList<Postings>();
+		if (normalised.length() <= MAX_GRAM) {
+			lists.add(grams.get(normalised));
+		} else {
+			for (int i = 0; i + MAX_GRAM <= normalised.length(); i++) {
+				lists.add(grams.get(normalised.substring(i, i + MAX_GRAM)));
+			}
+		}
+		if (lists.contains(null)) {
+			return result; //some part of the query isn't in any name
+		}
+		lists.sort((p1, p2) -> Integer.compare(p1.size, p2.size));
+
+		String target = ignoreCase ? normalised : query;
+		Postings smallest = lists.get(0);
+		for (int i = 0; i < smallest.size; i++) {
+			int id = smallest.ids[i];
+			if (inAll(lists, id)) {
+				Contact c = contacts.get(id);
+				String name = ignoreCase ? normalise(c.getName()) : c.getName();
+				if (prefix ? name.startsWith(target) : name.contains(target)) {
+					result.add(c);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static boolean inAll(List<Postings> lists, int id) {
+		for (int i = 1; i < lists.size(); i++) {
+			Postings p = lists.get(i);
+			if (Arrays.binarySearch(p.ids, 0, p.size, id) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String normalise(String s) {
+		return s.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * A sorted list of contact IDs.
+	 */
+	private static class Postings {
+		int[] ids = new int[2];
+		int size;
+
+		void add(int id) {
+			int i = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+			if (i < 0) {
+				i = -(i + 1); //contacts are normally added in ID order, so this is rare
+			} else if (i < size) {
+				return; //already in the list
+			}
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			System.arraycopy(ids, i, ids, i + 1, size - i);
+			ids[i] = id;
+			size++;
+		}
+	}
+}
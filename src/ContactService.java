@@ -0,0 +1,173 @@
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * An AsyncContactManager for a server handling many requests at once, which runs each query on a thread of its
+ * own and has concurrent identical queries share one answer.
+ * @author Sophie Koonin
+ * @see AsyncContactManager
+ *
+ * Each query runs on a new virtual thread where the Java runtime has them (Java 21 onwards), so a query waiting on
+ * the read lock never ties up a thread another query could use. Otherwise queries run on a pool of at most
+ * MAX_POOLED_THREADS daemon threads, and wait in a queue for one to be free.
+ *
+ * The list queries are coalesced: a query made while an identical one (the same method, with equal arguments) is
+ * still running waits for that one's answer instead of building its own copy of the list. So when many
+ * callers ask for the same contact's meetings at once, the list is built once. The lists and sets handed out are
+ * shared between those callers, and so can't be modified. Once a batch of changes has been made, queries that were
+ * already running are no longer joined, so a query made after a change has completed always sees it.
+ */
+public class ContactService extends AsyncContactManager {
+
+	static final int MAX_POOLED_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+
+	private ExecutorService requestExecutor;
+	private ConcurrentMap<List<Object>, CompletableFuture<?>> running = new ConcurrentHashMap<List<Object>, CompletableFuture<?>>();
+	private LongAdder coalesced = new LongAdder();
+
+	public ContactService() {
+		this(new ContactManagerImpl());
+	}
+
+	/**
+	 * @param cm the ContactManagerImpl to use, which must not be used directly afterwards
+	 */
+	public ContactService(ContactManagerImpl cm) {
+		this(cm, newRequestExecutor());
+	}
+
+	/**
+	 * @param cm the ContactManagerImpl to use, which must not be used directly afterwards
+	 * @param requestExecutor what to run queries on, which close() shuts down
+	 */
+	public ContactService(ContactManagerImpl cm, ExecutorService requestExecutor) {
+		super(cm, requestExecutor);
+		this.requestExecutor = requestExecutor;
+	}
+
+	@Override
+	public CompletableFuture<List<Meeting>> getFutureMeetingListAsync(Contact contact) {
+		return coalesce(Arrays.asList("getFutureMeetingList", contact),
+				() -> super.getFutureMeetingListAsync(contact).thenApply(Collections::unmodifiableList));
+	}
+
+	@Override
+	public CompletableFuture<List<Meeting>> getFutureMeetingListAsync(Calendar date) {
+		return coalesce(Arrays.asList("getFutureMeetingList(Calendar)", millis(date)),
+				() -> super.getFutureMeetingListAsync(date).thenApply(Collections::unmodifiableList));
+	}
+
+	@Override
+	public CompletableFuture<List<Meeting>> getMeetingListAsync(Calendar from, Calendar to) {
+		return coalesce(Arrays.asList("getMeetingList", millis(from), millis(to)),
+				() -> super.getMeetingListAsync(from, to).thenApply(Collections::unmodifiableList));
+	}
+
+	@Override
+	public CompletableFuture<List<PastMeeting>> getPastMeetingListAsync(Contact contact) {
+		return coalesce(Arrays.asList("getPastMeetingList", contact),
+				() -> super.getPastMeetingListAsync(contact).thenApply(Collections::unmodifiableList));
+	}
+
+	@Override
+	public CompletableFuture<Set<Contact>> getContactsAsync(String name) {
+		return coalesce(Arrays.asList("getContacts(String)", name),
+				() -> super.getContactsAsync(name).thenApply(Collections::unmodifiableSet));
+	}
+
+	/**
+	 * @return the number of queries that were answered by joining an identical one, rather than running
+	 */
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * Closes the AsyncContactManager, then stops taking queries.
+	 */
+	@Override
+	public void close() {
+		super.close();
+		requestExecutor.shutdown();
+	}
+
+	/**
+	 * Called once each batch of changes has been made: queries already running may not see the changes.
+	 */
+	@Override
+	void changesMade() {
+		running.clear();
+	}
+
+	/**
+	 * Returns the answer of the identical query that is running, or else runs this one.
+	 *
+	 * @param key the method and arguments of the query
+	 * @param query starts the query
+	 * @return a future of its own for the caller, so that cancelling it affects no other caller, which fails if
+	 * the query couldn't be started
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> CompletableFuture<T> coalesce(List<Object> key, Supplier<CompletableFuture<T>> query) {
+		CompletableFuture<T> started = new CompletableFuture<T>();
+		CompletableFuture<T> answer = (CompletableFuture<T>) running.putIfAbsent(key, started);
+		if (answer != null) {
+			coalesced.increment();
+			return answer.copy();
+		}
+		CompletableFuture<T> ran;
+		try {
+			ran = query.get();
+		} catch (RuntimeException e) { //for instance, the request executor has been shut down
+			running.remove(key, started);
+			started.completeExceptionally(e);
+			return started.copy();
+		}
+		ran.whenComplete((result, e) -> {
+			running.remove(key, started); //before completing, so a caller told the answer never joins it again
+			if (e != null) {
+				started.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+			} else {
+				started.complete(result);
+			}
+		});
+		return started.copy();
+	}
+
+	private static Long millis(Calendar date) {
+		return date == null ? null : date.getTimeInMillis();
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread for each task if the runtime has them, or else
+	 * one with a pool of up to MAX_POOLED_THREADS daemon threads, which are stopped when idle
+	 */
+	private static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_POOLED_THREADS, MAX_POOLED_THREADS, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), r -> {
+						Thread t = new Thread(r, "contact-service");
+						t.setDaemon(true);
+						return t;
+					});
+			pool.allowCoreThreadTimeOut(true);
+			return pool;
+		}
+	}
+}
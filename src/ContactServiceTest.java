@@ -0,0 +1,109 @@
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for ContactService.
+ * @see ContactService
+ */
+public class ContactServiceTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ContactService service;
+	private Contact alan;
+	private ExecutorService requestExecutor;
+	private CountDownLatch gate = new CountDownLatch(1);
+
+	@Before
+	public void buildUp() {
+		ContactManagerImpl cmi = new ContactManagerImpl(new File(folder.getRoot(), "contacts.txt"), DurabilityPolicy.everyWrite());
+		cmi.addNewContact("Alan", "nice");
+		alan = cmi.getContacts(1).iterator().next();
+		//a single thread that is held up until the gate opens, so queries stay running until then
+		requestExecutor = Executors.newSingleThreadExecutor();
+		requestExecutor.execute(() -> {
+			try {
+				gate.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		service = new ContactService(cmi, requestExecutor);
+	}
+
+	private Calendar nextYear() {
+		Calendar date = new GregorianCalendar();
+		date.add(Calendar.YEAR, 1);
+		return date;
+	}
+
+	/**
+	 * Test that identical queries made while one is running share its answer, and different ones don't
+	 */
+	@Test
+	public void testIdenticalQueriesCoalesced() {
+		service.addFutureMeetingAsync(Collections.singleton(alan), nextYear()).join();
+		CompletableFuture<List<Meeting>> first = service.getFutureMeetingListAsync(alan);
+		CompletableFuture<List<Meeting>> second = service.getFutureMeetingListAsync(alan);
+		CompletableFuture<Set<Contact>> other = service.getContactsAsync("Alan");
+		assertEquals(service.getCoalescedCount(), 1);
+		gate.countDown();
+		assertSame(first.join(), second.join());
+		assertEquals(first.join().size(), 1);
+		assertEquals(other.join().size(), 1);
+	}
+
+	/**
+	 * Test that a query made after a change has completed never joins an identical one made before it
+	 */
+	@Test
+	public void testNoCoalescingAcrossChange() {
+		CompletableFuture<List<Meeting>> before = service.getFutureMeetingListAsync(alan);
+		service.addFutureMeetingAsync(Collections.singleton(alan), nextYear()).join();
+		CompletableFuture<List<Meeting>> after = service.getFutureMeetingListAsync(alan);
+		assertEquals(service.getCoalescedCount(), 0);
+		gate.countDown();
+		before.join();
+		assertEquals(after.join().size(), 1);
+	}
+
+	/**
+	 * Test that the lists shared between callers can't be modified
+	 */
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSharedListUnmodifiable() {
+		gate.countDown();
+		service.getFutureMeetingListAsync(alan).join().clear();
+	}
+
+	/**
+	 * Test that a query which can't be started fails, and doesn't leave identical queries waiting for it
+	 */
+	@Test(timeout = 10000)
+	public void testQueryNotStarted() {
+		gate.countDown();
+		requestExecutor.shutdown();
+		CompletableFuture<List<Meeting>> first = service.getFutureMeetingListAsync(alan);
+		CompletableFuture<List<Meeting>> second = service.getFutureMeetingListAsync(alan);
+		assertTrue(first.isCompletedExceptionally());
+		assertTrue(second.isCompletedExceptionally());
+		assertEquals(service.getCoalescedCount(), 0);
+	}
+
+	@After
+	public void tearDown() {
+		gate.countDown();
+		service.close();
+	}
+}
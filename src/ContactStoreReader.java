@@ -0,0 +1,279 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads a store written by ContactStoreWriter back into contacts and meetings.
+ * @author Sophie Koonin
+ * @see ContactStoreWriter
+ *
+ * Meetings are given the Contact objects read from the contacts section, so each contact exists once
+ * however many meetings it takes part in. Nothing but the classes of this program is ever instantiated.
+ *
+ * A store can also be read from a ByteBuffer, usually a memory-mapped file. The string table is then
+ * only scanned for the position of each string, and the notes of past meetings are left in the buffer
+ * until getNotes() is called, so old meetings that are never looked at cost little more than their IDs.
+ */
+public class ContactStoreReader {
+
+	private DataInputStream in;
+	private ByteBuffer buffer; //the buffer being read, or null when reading a stream
+	private Map<String, String> shards = new LinkedHashMap<String, String>();
+	private long generation;
+	private StringTable strings;
+	private List<Contact> contacts;
+	private List<Meeting> futureMeetings;
+	private List<PastMeeting> pastMeetings;
+
+	public ContactStoreReader(InputStream in) {
+		this.in = new DataInputStream(in);
+	}
+
+	/**
+	 * Creates a reader that decodes the notes of past meetings from the buffer on demand.
+	 * The buffer must not be changed afterwards.
+	 *
+	 * @param buffer the store, from its current position
+	 */
+	public ContactStoreReader(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.in = new DataInputStream(new ByteBufferInputStream(buffer));
+	}
+
+	/**
+	 * Reads the whole store. The stream is not closed.
+	 *
+	 * @throws IOException if the stream is not a contact store, or is of a later version
+	 */
+	public void read() throws IOException {
+		read(null);
+	}
+
+	/**
+	 * Reads the whole store, which is a shard whose meetings may refer to contacts held in another shard.
+	 * The stream is not closed.
+	 *
+	 * @param contactTable the contacts that meetings' participants are looked up in, which this store's own
+	 * contacts are added to, or null to only use this store's contacts
+	 * @throws IOException if the stream is not a contact store, or is of a later version
+	 */
+	public void read(ContactTable contactTable) throws IOException {
+		if (in.readInt() != ContactStoreWriter.MAGIC) {
+			throw new IOException("Not a contact store");
+		}
+		int version = in.readUnsignedByte();
+		if (version < 1 || version > ContactStoreWriter.VERSION) {
+			throw new IOException("Unsupported contact store version " + version);
+		}
+		if (version >= 2) {
+			int shardCount = readCount(in);
+			for (int i = 0; i < shardCount; i++) {
+				shards.put(readString(in), readString(in));
+			}
+		}
+		if (version >= 3) {
+			generation = readVarLong(in);
+		}
+		strings = buffer == null ? readStrings(in) : new StringTable(buffer, readCount(in));
+
+		int contactCount = readCount(in);
+		contacts = new ArrayList<Contact>(contactCount);
+		ContactTable table = contactTable != null ? contactTable : new ContactTable(contactCount);
+		for (int i = 0; i < contactCount; i++) {
+			Contact c = new ContactImpl(readVarInt(in), strings.get(readVarInt(in)), strings.get(readVarInt(in)));
+			contacts.add(c);
+			table.add(c);
+		}
+
+		int futureCount = readCount(in);
+		futureMeetings = new ArrayList<Meeting>(futureCount);
+		for (int i = 0; i < futureCount; i++) {
+			int id = readVarInt(in);
+			long time = readTime(in);
+			futureMeetings.add(new FutureMeetingImpl(id, readParticipants(in, table), time));
+		}
+
+		int pastCount = readCount(in);
+		pastMeetings = new ArrayList<PastMeeting>(pastCount);
+		for (int i = 0; i < pastCount; i++) {
+			int id = readVarInt(in);
+			long time = readTime(in);
+			ParticipantSet participants = readParticipants(in, table);
+			int notes = readVarInt(in);
+			if (buffer == null) {
+				pastMeetings.add(new PastMeetingImpl(id, participants, time, strings.get(notes)));
+			} else {
+				pastMeetings.add(new MappedPastMeetingImpl(id, participants, time, strings, notes));
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * @return the file name of each shard by shard name, if the store is the manifest of a sharded store,
+	 * or else an empty map
+	 */
+	public Map<String, String> getShards() {
+		return shards;
+	}
+
+	/**
+	 * @return the generation of the snapshot, if the store is the manifest of a sharded store of version 3
+	 * or later, or else 0
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	public List<Contact> getContacts() {
+		return contacts;
+	}
+
+	public List<Meeting> getFutureMeetings() {
+		return futureMeetings;
+	}
+
+	public List<PastMeeting> getPastMeetings() {
+		return pastMeetings;
+	}
+
+	private static StringTable readStrings(DataInput in) throws IOException {
+		String[] strings = new String[readCount(in)];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = readString(in);
+		}
+		return new StringTable(strings);
+	}
+
+	/**
+	 * Reads a string written by ContactStoreWriter.writeString().
+	 */
+	static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[readCount(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static ParticipantSet readParticipants(DataInput in, ContactTable table) throws IOException {
+		int count = readCount(in);
+		List<Contact> participants = new ArrayList<Contact>(count);
+		int id = 0;
+		for (int i = 0; i < count; i++) {
+			id += readVarInt(in);
+			Contact c = table.get(id);
+			if (c == null) {
+				throw new IOException("Meeting refers to unknown contact " + id);
+			}
+			participants.add(c);
+		}
+		return ParticipantSet.of(participants);
+	}
+
+	private static long readTime(DataInput in) throws IOException {
+		long zigzagged = readVarLong(in);
+		return (zigzagged >>> 1) ^ -(zigzagged & 1);
+	}
+
+	/**
+	 * Reads a count, checking that it is not negative.
+	 */
+	private static int readCount(DataInput in) throws IOException {
+		int count = readVarInt(in);
+		if (count < 0) {
+			throw new IOException("Corrupt contact store");
+		}
+		return count;
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt contact store");
+	}
+
+	/**
+	 * The string table of a store, either fully decoded or left in a buffer.
+	 */
+	static class StringTable {
+		private String[] strings;
+		private ByteBuffer buffer;
+		private int[] offsets;
+		private int[] lengths;
+
+		StringTable(String[] strings) {
+			this.strings = strings;
+		}
+
+		/**
+		 * Records where each of the strings starts in the buffer, leaving the buffer positioned after them.
+		 */
+		StringTable(ByteBuffer buffer, int count) throws IOException {
+			this.buffer = buffer;
+			offsets = new int[count];
+			lengths = new int[count];
+			DataInput in = new DataInputStream(new ByteBufferInputStream(buffer));
+			for (int i = 0; i < count; i++) {
+				lengths[i] = readCount(in);
+				offsets[i] = buffer.position();
+				if (lengths[i] > buffer.remaining()) {
+					throw new IOException("Corrupt contact store");
+				}
+				buffer.position(offsets[i] + lengths[i]);
+			}
+		}
+
+		String get(int index) {
+			if (strings != null) {
+				return strings[index];
+			}
+			byte[] bytes = new byte[lengths[index]];
+			ByteBuffer view = buffer.duplicate(); //so that concurrent readers don't share a position
+			view.position(offsets[index]);
+			view.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Reads from a ByteBuffer, leaving the buffer's position just after the last byte read.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+	}
+}
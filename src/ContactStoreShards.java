@@ -0,0 +1,317 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The files of a sharded contact store: a manifest, and a file for each shard that it lists.
+ * @author Sophie Koonin
+ * @see ContactStoreWriter
+ *
+ * There is a shard for the contacts (CONTACTS), one for the future meetings (FUTURE), and one for the past
+ * meetings of each month that has any, named by pastShard(). Each shard is a contact store of its own, whose
+ * meetings refer to the contacts in the contacts shard by ID. The manifest (e.g. contacts.txt) is a contact
+ * store holding nothing but the shard table, which gives the file name of each shard.
+ *
+ * A changed shard is written to a new file, named after the shard and a generation number, and takes effect
+ * when commit() replaces the manifest by renaming a new one over it. Until then the old manifest and the files
+ * it lists are untouched, so a crash leaves the previous version whole; the files it replaced are deleted
+ * afterwards. Only one ContactManagerImpl may use a store at a time.
+ *
+ * The manifest also records the generation of the snapshot it commits, which ContactManagerJournal stamps
+ * the journal written after it with, so that a journal whose changes are already in the snapshot is never
+ * replayed again.
+ *
+ * A manifest that is a version 1 contact store, with no shard table, is an unsharded store from before shards
+ * were introduced, and everything is read from it.
+ */
+public class ContactStoreShards {
+
+	public static final String CONTACTS = "contacts";
+	public static final String FUTURE = "future";
+	private static final String PAST = "past-";
+
+	private File manifest;
+	private Map<String, String> files = new TreeMap<String, String>(); //the file name of each shard, by shard name
+	private List<String> replaced = new ArrayList<String>(); //files to delete once the manifest no longer lists them
+	private long generation; //the latest generation given to a file
+	private long committedGeneration; //the generation of the manifest on disk
+	private boolean sharded;
+
+	/**
+	 * @param manifest the manifest file, in the directory that holds the shard files
+	 */
+	public ContactStoreShards(File manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * The contacts and meetings read from a store.
+	 */
+	public static class Contents {
+		private List<Contact> contacts = new ArrayList<Contact>();
+		private List<Meeting> futureMeetings = new ArrayList<Meeting>();
+		private List<PastMeeting> pastMeetings = new ArrayList<PastMeeting>();
+
+		public List<Contact> getContacts() {
+			return contacts;
+		}
+
+		public List<Meeting> getFutureMeetings() {
+			return futureMeetings;
+		}
+
+		public List<PastMeeting> getPastMeetings() {
+			return pastMeetings;
+		}
+
+		private void add(ContactStoreReader reader) {
+			contacts.addAll(reader.getContacts());
+			futureMeetings.addAll(reader.getFutureMeetings());
+			pastMeetings.addAll(reader.getPastMeetings());
+		}
+	}
+
+	/**
+	 * Reads the manifest and every shard it lists. The contacts shard is read first, since the meetings in the
+	 * other shards refer to its contacts, and the other shards are then read in parallel on the common ForkJoinPool.
+	 * The contents are in the same order whichever shard is read first.
+	 *
+	 * @param memoryMapped true to map each file and decode past meeting notes on demand
+	 * @return the contacts and meetings of the store
+	 * @throws IOException if a file can't be read or isn't a contact store
+	 */
+	public Contents load(boolean memoryMapped) throws IOException {
+		Contents contents = new Contents();
+		ContactStoreReader reader = read(manifest, memoryMapped, null);
+		files.clear();
+		files.putAll(reader.getShards());
+		committedGeneration = reader.getGeneration();
+		generation = Math.max(generation, committedGeneration);
+		for (String name : files.values()) {
+			generation = Math.max(generation, generationOf(name)); //so no new file is named like one in the store
+		}
+		sharded = !files.isEmpty();
+		if (!sharded) {
+			contents.add(reader); //an unsharded store
+			return contents;
+		}
+		ContactTable contactTable = new ContactTable();
+		contents.add(read(fileOf(CONTACTS), memoryMapped, contactTable)); //only read from after this
+		List<ForkJoinTask<ContactStoreReader>> tasks = new ArrayList<ForkJoinTask<ContactStoreReader>>();
+		for (String shard : files.keySet()) {
+			if (!shard.equals(CONTACTS)) {
+				File file = fileOf(shard);
+				tasks.add(ForkJoinPool.commonPool().submit(() -> read(file, memoryMapped, contactTable)));
+			}
+		}
+		for (ForkJoinTask<ContactStoreReader> task : tasks) {
+			try {
+				contents.add(task.join());
+			} catch (RuntimeException e) {
+				for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+					if (cause instanceof IOException) {
+						throw (IOException) cause; //the task wraps it, and joining may wrap it again
+					}
+				}
+				throw e;
+			}
+		}
+		return contents;
+	}
+
+	/**
+	 * @return true if the store was loaded from, or has been committed as, a sharded store
+	 */
+	public boolean isSharded() {
+		return sharded;
+	}
+
+	/**
+	 * @return the generation of the snapshot last loaded or committed, or 0 if it doesn't record one
+	 */
+	public long getCommittedGeneration() {
+		return committedGeneration;
+	}
+
+	/**
+	 * @return the names of the shards in the store
+	 */
+	public Set<String> getShardNames() {
+		return Collections.unmodifiableSet(files.keySet());
+	}
+
+	/**
+	 * Writes a shard to a new file and syncs it. It becomes part of the store on the next commit().
+	 * A shard other than CONTACTS with no meetings is removed from the store instead.
+	 *
+	 * @param shard the name of the shard
+	 * @param contacts the contacts, for the CONTACTS shard
+	 * @param futureMeetings the future meetings, for the FUTURE shard
+	 * @param pastMeetings the past meetings, for a shard named by pastShard()
+	 * @return the number of bytes written
+	 */
+	public long writeShard(String shard, Collection<Contact> contacts, Collection<? extends Meeting> futureMeetings,
+			Collection<? extends PastMeeting> pastMeetings) throws IOException {
+		if (!shard.equals(CONTACTS) && futureMeetings.isEmpty() && pastMeetings.isEmpty()) {
+			removeShard(shard);
+			return 0;
+		}
+		nextGeneration();
+		String base = manifest.getName().replaceFirst("\\.[^.]*$", "");
+		String name = base + "." + shard + "." + Long.toString(generation, 36);
+		File file = new File(manifest.getAbsoluteFile().getParentFile(), name);
+		FileOutputStream fileStream = new FileOutputStream(file);
+		try {
+			BufferedOutputStream outputStream = new BufferedOutputStream(fileStream);
+			new ContactStoreWriter(outputStream).write(contacts, futureMeetings, pastMeetings);
+			fileStream.getFD().sync();
+		} finally {
+			fileStream.close();
+		}
+		String old = files.put(shard, name);
+		if (old != null) {
+			replaced.add(old);
+		}
+		return file.length();
+	}
+
+	/**
+	 * Removes a shard from the store on the next commit().
+	 *
+	 * @param shard the name of the shard
+	 */
+	public void removeShard(String shard) {
+		String old = files.remove(shard);
+		if (old != null) {
+			replaced.add(old);
+		}
+	}
+
+	/**
+	 * Replaces the manifest with one listing the shards as they are now, stamped with a new generation,
+	 * then deletes the files that no longer belong to the store.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long commit() throws IOException {
+		long committing = nextGeneration();
+		File tempFile = new File(manifest.getPath() + ".tmp");
+		FileOutputStream fileStream = new FileOutputStream(tempFile);
+		try {
+			BufferedOutputStream outputStream = new BufferedOutputStream(fileStream);
+			new ContactStoreWriter(outputStream).writeManifest(files, committing);
+			fileStream.getFD().sync(); //the shards it lists are already synced
+		} finally {
+			fileStream.close();
+		}
+		Files.move(tempFile.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(); //the rename itself must be on disk before the journal is emptied
+		committedGeneration = committing;
+		sharded = true;
+		for (String name : replaced) {
+			if (!files.containsValue(name)) {
+				new File(manifest.getAbsoluteFile().getParentFile(), name).delete(); //a mapping of it stays valid
+			}
+		}
+		replaced.clear();
+		return manifest.length();
+	}
+
+	/**
+	 * Deletes the manifest and every shard file it lists.
+	 */
+	public void deleteAll() throws IOException {
+		if (manifest.exists() && manifest.length() > 0) {
+			for (String name : read(manifest, false, null).getShards().values()) {
+				new File(manifest.getAbsoluteFile().getParentFile(), name).delete();
+			}
+		}
+		manifest.delete();
+		files.clear();
+	}
+
+	/**
+	 * @param month a month, counted as in monthOf()
+	 * @return the name of the shard holding the past meetings of that month, e.g. "past-2015-04"
+	 */
+	public static String pastShard(int month) {
+		return String.format("%s%04d-%02d", PAST, Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1);
+	}
+
+	/**
+	 * @param time a date in milliseconds
+	 * @return the month of that date in the default time zone, counted from January of year 0
+	 */
+	public static int monthOf(long time) {
+		LocalDate date = LocalDate.ofEpochDay(MeetingTimeIndex.epochDay(time));
+		return date.getYear() * 12 + date.getMonthValue() - 1;
+	}
+
+	/**
+	 * @param month a month, counted as in monthOf()
+	 * @return midnight at the start of the month, in the default time zone
+	 */
+	public static Calendar startOfMonth(int month) {
+		return new GregorianCalendar(Math.floorDiv(month, 12), Math.floorMod(month, 12), 1);
+	}
+
+	/**
+	 * @param name the file name of a shard
+	 * @return the generation in its name, or 0 if it has none
+	 */
+	private static long generationOf(String name) {
+		try {
+			return Long.parseLong(name.substring(name.lastIndexOf('.') + 1), 36);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return a generation later than any given before or found in the store, and so unlike any file an older store left
+	 */
+	private long nextGeneration() {
+		generation = Math.max(generation + 1, System.currentTimeMillis());
+		return generation;
+	}
+
+	/**
+	 * Syncs the directory holding the store, so that the files created and renamed in it survive a crash.
+	 * Where directories can't be opened, as on Windows, this does nothing.
+	 */
+	private void syncDirectory() {
+		try (FileChannel channel = FileChannel.open(manifest.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			//not supported on this platform
+		}
+	}
+
+	private File fileOf(String shard) {
+		return new File(manifest.getAbsoluteFile().getParentFile(), files.get(shard));
+	}
+
+	private static ContactStoreReader read(File file, boolean memoryMapped, ContactTable contactTable) throws IOException {
+		if (memoryMapped) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				//the mapping outlives the channel, and the file it maps is never modified, only replaced
+				ContactStoreReader reader = new ContactStoreReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+				reader.read(contactTable);
+				return reader;
+			}
+		}
+		ContactStoreReader reader = new ContactStoreReader(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			reader.read(contactTable);
+		} finally {
+			reader.close();
+		}
+		return reader;
+	}
+}
@@ -0,0 +1,142 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes the contacts and meetings of a ContactManagerImpl in the contact store format.
+ * @author Sophie Koonin
+ * @see ContactStoreReader
+ *
+ * The format is a header (MAGIC, then VERSION) followed by five sections:
+ *  - the shard table: the name and file name of each shard, if this is the manifest of a sharded store,
+ *    followed by the generation of the snapshot as a varint (0 for a store that isn't a manifest)
+ *  - the string table: every distinct name and note, each written once as UTF-8
+ *  - the contacts: ID, then the table index of the name and of the notes
+ *  - the future meetings: ID, date in milliseconds, then the number of participants and their IDs
+ *  - the past meetings: as future meetings, followed by the table index of the notes
+ * Counts, IDs and table indexes are unsigned varints, dates are zigzag varints, and participant IDs are
+ * sorted and written as the difference from the previous one, so most of them take a single byte.
+ *
+ * Version 1 had no shard table. ContactStoreReader still reads it, as a store held in a single file.
+ * Version 2 had no generation after the shard table.
+ */
+public class ContactStoreWriter {
+
+	public static final int MAGIC = 0x434D5354; //"CMST"
+	public static final int VERSION = 3;
+
+	private DataOutputStream out;
+	private Map<String, Integer> stringTable = new LinkedHashMap<String, Integer>();
+
+	public ContactStoreWriter(OutputStream out) {
+		this.out = new DataOutputStream(out);
+	}
+
+	/**
+	 * Writes a complete store. The stream is flushed but not closed.
+	 *
+	 * @param contacts all contacts
+	 * @param futureMeetings all future meetings
+	 * @param pastMeetings all past meetings
+	 */
+	public void write(Collection<Contact> contacts, Collection<? extends Meeting> futureMeetings,
+			Collection<? extends PastMeeting> pastMeetings) throws IOException {
+		write(Collections.<String, String>emptyMap(), 0, contacts, futureMeetings, pastMeetings);
+	}
+
+	/**
+	 * Writes the manifest of a sharded store: a store with no contacts or meetings of its own, listing the
+	 * files that hold them. The stream is flushed but not closed.
+	 *
+	 * @param shards the file name of each shard, by shard name
+	 * @param generation the generation of the snapshot, which the journal written after it is stamped with
+	 * @see ContactStoreShards
+	 */
+	public void writeManifest(Map<String, String> shards, long generation) throws IOException {
+		write(shards, generation, Collections.<Contact>emptyList(), Collections.<Meeting>emptyList(), Collections.<PastMeeting>emptyList());
+	}
+
+	private void write(Map<String, String> shards, long generation, Collection<Contact> contacts, Collection<? extends Meeting> futureMeetings,
+			Collection<? extends PastMeeting> pastMeetings) throws IOException {
+		for (Contact c : contacts) {
+			intern(c.getName());
+			intern(c.getNotes());
+		}
+		for (PastMeeting pm : pastMeetings) {
+			intern(pm.getNotes());
+		}
+
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		writeVarInt(out, shards.size());
+		for (Map.Entry<String, String> shard : shards.entrySet()) {
+			writeString(out, shard.getKey());
+			writeString(out, shard.getValue());
+		}
+		writeVarLong(out, generation);
+		writeVarInt(out, stringTable.size());
+		for (String s : stringTable.keySet()) {
+			writeString(out, s);
+		}
+		writeVarInt(out, contacts.size());
+		for (Contact c : contacts) {
+			writeVarInt(out, c.getId());
+			writeVarInt(out, stringTable.get(c.getName()));
+			writeVarInt(out, stringTable.get(c.getNotes()));
+		}
+		writeVarInt(out, futureMeetings.size());
+		for (Meeting m : futureMeetings) {
+			writeMeeting(m);
+		}
+		writeVarInt(out, pastMeetings.size());
+		for (PastMeeting pm : pastMeetings) {
+			writeMeeting(pm);
+			writeVarInt(out, stringTable.get(pm.getNotes()));
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes a string as its length in bytes, as a varint, followed by its UTF-8 bytes, so that unlike
+	 * writeUTF() there is no limit on its length.
+	 */
+	static void writeString(DataOutput out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private void intern(String s) {
+		if (!stringTable.containsKey(s)) {
+			stringTable.put(s, stringTable.size());
+		}
+	}
+
+	private void writeMeeting(Meeting m) throws IOException {
+		writeVarInt(out, m.getId());
+		writeVarLong(out, zigzag(MeetingImpl.timeOf(m)));
+		int[] ids = ParticipantSet.of(m.getContacts()).getIds().toArray(); //in ascending order
+		writeVarInt(out, ids.length);
+		int previous = 0;
+		for (int id : ids) {
+			writeVarInt(out, id - previous);
+			previous = id;
+		}
+	}
+
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		writeVarLong(out, value & 0xFFFFFFFFL);
+	}
+
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+}
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The contacts of a ContactManagerImpl, stored in an array indexed by contact ID.
+ * @author Sophie Koonin
+ *
+ * Contact IDs are handed out in sequence starting from 1, so the array is dense and a contact is found
+ * by reading a single slot. Slot 0 is never used.
+ */
+public class ContactTable {
+
+	private Contact[] contacts;
+	private int size;
+
+	public ContactTable() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize the number of contacts the table should hold without resizing
+	 */
+	public ContactTable(int expectedSize) {
+		contacts = new Contact[Math.max(expectedSize + 1, 16)];
+	}
+
+	/**
+	 * Stores a contact under its ID.
+	 *
+	 * @param contact the contact to store
+	 * @throws IllegalArgumentException if the ID is less than 1
+	 */
+	public void add(Contact contact) {
+		int id = contact.getId();
+		if (id < 1) {
+			throw new IllegalArgumentException();
+		}
+		if (id >= contacts.length) {
+			contacts = Arrays.copyOf(contacts, Math.max(contacts.length * 2, id + 1));
+		}
+		if (contacts[id] == null) {
+			size++;
+		}
+		contacts[id] = contact;
+	}
+
+	/**
+	 * Returns the contact with the given ID, or null if there is none.
+	 *
+	 * @param id the ID of the contact
+	 * @return the contact, or null
+	 */
+	public Contact get(int id) {
+		if (id < 1 || id >= contacts.length) {
+			return null;
+		}
+		return contacts[id];
+	}
+
+	/**
+	 * Checks whether the given contact is in the table, i.e. whether the contact stored under its ID
+	 * is equal to it.
+	 *
+	 * @param contact the contact to look for, which may be null
+	 * @return true if it is in the table, and false for null
+	 */
+	public boolean contains(Contact contact) {
+		if (contact == null) {
+			return false;
+		}
+		Contact stored = get(contact.getId());
+		return stored != null && stored.equals(contact);
+	}
+
+	public boolean containsAll(Collection<Contact> contacts) {
+		for (Contact c : contacts) {
+			if (!contains(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+}
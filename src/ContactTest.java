@@ -15,6 +15,21 @@ public class ContactTest {
 		Contact person2 = new ContactImpl(1, "Alan", "Likes cheese");
 		assertTrue(person.equals(person2));
 	}
+	/**
+	 * Test that a contact stays equal to itself, and can still be found in a set, after its notes change
+	 */
+	@Test
+	public void testEqualsAfterAddNotes(){
+		java.util.Set<Contact> set = new java.util.HashSet<Contact>();
+		set.add(person);
+		Contact person2 = new ContactImpl(1, "Alan", "Likes cheese");
+		person.addNotes("Speaks French");
+		assertTrue(person.equals(person2));
+		assertEquals(person.hashCode(), person2.hashCode());
+		assertTrue(set.contains(person));
+		assertFalse(person.equals(new ContactImpl(2, "Alan", "Likes cheese")));
+	}
+
 	@Test
 	public void testGetId(){
 		//test ID getter
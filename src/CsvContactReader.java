@@ -0,0 +1,109 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads contacts from CSV, for use with ContactManager.addNewContacts(Iterator).
+ * @author Sophie Koonin
+ *
+ * Each record holds a name and then notes. Fields may be quoted with double quotes, in which case they
+ * can contain commas, line breaks and doubled quotes (""), as in RFC 4180. Records are read one at a time
+ * as the iterator is advanced, so a file of any size can be imported without being held in memory.
+ */
+public class CsvContactReader implements Iterator<String[]>, Closeable {
+
+	private Reader in;
+	private String[] next;
+	private int recordNumber;
+
+	/**
+	 * @param in the CSV to read, which is buffered by this reader
+	 * @param hasHeader true if the first record holds column names and should be skipped
+	 */
+	public CsvContactReader(Reader in, boolean hasHeader) {
+		this.in = new BufferedReader(in);
+		if (hasHeader) {
+			readRecord();
+		}
+		next = readRecord();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	/**
+	 * @return the next contact, as an array holding its name and notes
+	 * @throws UncheckedIOException if the CSV could not be read
+	 * @throws IllegalArgumentException if a record does not have exactly two fields
+	 */
+	@Override
+	public String[] next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		String[] result = next;
+		if (result.length != 2) {
+			throw new IllegalArgumentException("Record " + recordNumber + " should have a name and notes");
+		}
+		next = readRecord();
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * @return the fields of the next record, or null at the end of the CSV
+	 */
+	private String[] readRecord() {
+		try {
+			int c = in.read();
+			while (c == '\r' || c == '\n') {
+				c = in.read(); //skip blank lines
+			}
+			if (c == -1) {
+				return null;
+			}
+			recordNumber++;
+			List<String> fields = new ArrayList<String>(2);
+			StringBuilder field = new StringBuilder();
+			boolean quoted = false;
+			while (true) {
+				if (quoted) {
+					if (c == -1) {
+						throw new IOException("Unterminated quote in record " + recordNumber);
+					} else if (c == '"') {
+						in.mark(1);
+						if (in.read() == '"') {
+							field.append('"');
+						} else {
+							in.reset();
+							quoted = false;
+						}
+					} else {
+						field.append((char) c);
+					}
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == ',') {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else if (c == '\n' || c == '\r' || c == -1) {
+					fields.add(field.toString());
+					return fields.toArray(new String[fields.size()]);
+				} else {
+					field.append((char) c);
+				}
+				c = in.read();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * How often a ContactManagerImpl forces its journal to disk.
+ * @author Sophie Koonin
+ * @see ContactManagerJournal
+ *
+ * Records that have been written but not yet synced can be lost if the machine crashes. Syncing
+ * after every write is the safest policy, but also the slowest; group commit syncs once for a
+ * batch of writes, and the flush-only policy leaves it to flush() to make everything durable.
+ */
+public final class DurabilityPolicy {
+
+	private final int maxPendingWrites; //writes allowed before a sync, or 0 to wait for flush()
+	private final long maxDelayMillis; //time allowed before a sync, or 0 for no timer
+
+	private DurabilityPolicy(int maxPendingWrites, long maxDelayMillis) {
+		this.maxPendingWrites = maxPendingWrites;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * Sync the journal after every write, so that each change is on disk before the method that
+	 * made it returns.
+	 *
+	 * @return the per-write policy
+	 */
+	public static DurabilityPolicy everyWrite() {
+		return new DurabilityPolicy(1, 0);
+	}
+
+	/**
+	 * Sync the journal once maxWrites records are waiting, or once the oldest waiting record is
+	 * maxDelayMillis old, whichever comes first.
+	 *
+	 * @param maxWrites the number of writes that triggers a sync
+	 * @param maxDelayMillis the longest a write can wait to be synced, or 0 to sync on count alone
+	 * @return a group commit policy
+	 * @throws IllegalArgumentException if maxWrites is less than 1 or maxDelayMillis is negative
+	 */
+	public static DurabilityPolicy groupCommit(int maxWrites, long maxDelayMillis) {
+		if (maxWrites < 1 || maxDelayMillis < 0) {
+			throw new IllegalArgumentException();
+		}
+		return new DurabilityPolicy(maxWrites, maxDelayMillis);
+	}
+
+	/**
+	 * Only sync the journal when flush() is called.
+	 *
+	 * @return the flush-only policy
+	 */
+	public static DurabilityPolicy onFlush() {
+		return new DurabilityPolicy(0, 0);
+	}
+
+	public int getMaxPendingWrites() {
+		return maxPendingWrites;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+}
@@ -12,4 +12,8 @@ public class FutureMeetingImpl extends MeetingImpl implements FutureMeeting, jav
 		super(id, contacts, date);
 	}
 
+	public FutureMeetingImpl(int id, Set<Contact> contacts, long time) {
+		super(id, contacts, time);
+	}
+
 }
@@ -0,0 +1,289 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative ints, such as contact or meeting IDs.
+ * @author Sophie Koonin
+ *
+ * The layout follows Roaring bitmaps. Values are split by their high 16 bits into chunks, kept in order
+ * of those bits. A chunk with up to ARRAY_LIMIT values stores their low 16 bits as a sorted char array,
+ * which for a handful of IDs costs two bytes each; a fuller chunk switches to a 65536-bit bitmap of 8KB,
+ * which is then smaller than the array would be. Membership is a binary search over the chunks followed
+ * by either a binary search or a single bit test, and the intersection of two sets is worked out chunk
+ * by chunk, word by word where both chunks are bitmaps.
+ */
+public class IntBitmap {
+
+	static final int ARRAY_LIMIT = 4096;
+	private static final int BITMAP_WORDS = 1 << 10;
+
+	private char[] keys = new char[1]; //the high 16 bits of each chunk, in order
+	private Object[] chunks = new Object[1]; //a char[] of sorted low bits, or a long[] bitmap
+	private int[] cardinalities = new int[1];
+	private int chunkCount;
+	private int size;
+
+	/**
+	 * Adds a value, unless it is already in the set.
+	 *
+	 * @param value the value to add
+	 * @return true if the value was added
+	 * @throws IllegalArgumentException if the value is negative
+	 */
+	public boolean add(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException();
+		}
+		char high = (char) (value >>> 16);
+		char low = (char) value;
+		int c = findChunk(high);
+		if (c < 0) {
+			c = -(c + 1);
+			insertChunk(c, high);
+		}
+		Object chunk = chunks[c];
+		if (chunk instanceof long[]) {
+			long[] bits = (long[]) chunk;
+			if ((bits[low >>> 6] & (1L << low)) != 0) {
+				return false;
+			}
+			bits[low >>> 6] |= 1L << low;
+		} else {
+			char[] values = (char[]) chunk;
+			int n = cardinalities[c];
+			int i = n > 0 && values[n - 1] < low ? -(n + 1) : Arrays.binarySearch(values, 0, n, low);
+			if (i >= 0) {
+				return false;
+			}
+			i = -(i + 1);
+			if (n == ARRAY_LIMIT) {
+				chunks[c] = toBitmap(values, n);
+				((long[]) chunks[c])[low >>> 6] |= 1L << low;
+			} else {
+				if (n == values.length) {
+					values = Arrays.copyOf(values, Math.min(n * 2, ARRAY_LIMIT));
+					chunks[c] = values;
+				}
+				System.arraycopy(values, i, values, i + 1, n - i);
+				values[i] = low;
+			}
+		}
+		cardinalities[c]++;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes a value, if it is in the set.
+	 *
+	 * @param value the value to remove
+	 * @return true if the value was removed
+	 */
+	public boolean remove(int value) {
+		if (!contains(value)) {
+			return false;
+		}
+		char low = (char) value;
+		int c = findChunk((char) (value >>> 16));
+		Object chunk = chunks[c];
+		if (chunk instanceof long[]) {
+			((long[]) chunk)[low >>> 6] &= ~(1L << low);
+		} else {
+			char[] values = (char[]) chunk;
+			int i = Arrays.binarySearch(values, 0, cardinalities[c], low);
+			System.arraycopy(values, i + 1, values, i, cardinalities[c] - i - 1);
+		}
+		size--;
+		if (--cardinalities[c] == 0) {
+			System.arraycopy(keys, c + 1, keys, c, chunkCount - c - 1);
+			System.arraycopy(chunks, c + 1, chunks, c, chunkCount - c - 1);
+			System.arraycopy(cardinalities, c + 1, cardinalities, c, chunkCount - c - 1);
+			chunks[--chunkCount] = null;
+		}
+		return true;
+	}
+
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+		}
+		int c = findChunk((char) (value >>> 16));
+		if (c < 0) {
+			return false;
+		}
+		char low = (char) value;
+		Object chunk = chunks[c];
+		if (chunk instanceof long[]) {
+			return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+		}
+		return Arrays.binarySearch((char[]) chunk, 0, cardinalities[c], low) >= 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Passes every value in the set to the given action, in ascending order.
+	 *
+	 * @param action what to do with each value
+	 */
+	public void forEach(IntConsumer action) {
+		for (int c = 0; c < chunkCount; c++) {
+			int high = keys[c] << 16;
+			Object chunk = chunks[c];
+			if (chunk instanceof long[]) {
+				long[] bits = (long[]) chunk;
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					for (long word = bits[w]; word != 0; word &= word - 1) {
+						action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+					}
+				}
+			} else {
+				char[] values = (char[]) chunk;
+				for (int i = 0; i < cardinalities[c]; i++) {
+					action.accept(high | values[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the values in the set, in ascending order
+	 */
+	public int[] toArray() {
+		int[] result = new int[size];
+		int[] position = {0};
+		forEach(value -> result[position[0]++] = value);
+		return result;
+	}
+
+	/**
+	 * Returns the values that are in both sets, without changing either.
+	 *
+	 * @param a one set
+	 * @param b the other set
+	 * @return a new set with the values common to both
+	 */
+	public static IntBitmap and(IntBitmap a, IntBitmap b) {
+		IntBitmap result = new IntBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < a.chunkCount && j < b.chunkCount) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				result.andChunks(a.keys[i], a.chunks[i], a.cardinalities[i], b.chunks[j], b.cardinalities[j]);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Appends the intersection of two chunks with the same high bits, which must come after any chunk
+	 * already in this set.
+	 */
+	private void andChunks(char high, Object x, int xCount, Object y, int yCount) {
+		if (x instanceof long[] && y instanceof long[]) {
+			long[] xBits = (long[]) x;
+			long[] yBits = (long[]) y;
+			long[] bits = new long[BITMAP_WORDS];
+			int count = 0;
+			for (int w = 0; w < BITMAP_WORDS; w++) {
+				bits[w] = xBits[w] & yBits[w];
+				count += Long.bitCount(bits[w]);
+			}
+			if (count > ARRAY_LIMIT) {
+				appendChunk(high, bits, count);
+			} else if (count > 0) {
+				appendChunk(high, toArray(bits, count), count);
+			}
+			return;
+		}
+		if (x instanceof long[]) { //make x the array, so only y may be a bitmap
+			Object swap = x;
+			x = y;
+			y = swap;
+			int swapCount = xCount;
+			xCount = yCount;
+			yCount = swapCount;
+		}
+		char[] xValues = (char[]) x;
+		char[] values = new char[xCount];
+		int count = 0;
+		for (int k = 0; k < xCount; k++) {
+			char low = xValues[k];
+			boolean inY = y instanceof long[]
+					? (((long[]) y)[low >>> 6] & (1L << low)) != 0
+					: Arrays.binarySearch((char[]) y, 0, yCount, low) >= 0;
+			if (inY) {
+				values[count++] = low;
+			}
+		}
+		if (count > 0) {
+			appendChunk(high, values, count);
+		}
+	}
+
+	private void appendChunk(char high, Object chunk, int count) {
+		insertChunk(chunkCount, high);
+		chunks[chunkCount - 1] = chunk;
+		cardinalities[chunkCount - 1] = count;
+		size += count;
+	}
+
+	/**
+	 * Opens an empty array chunk at position c.
+	 */
+	private void insertChunk(int c, char high) {
+		if (chunkCount == keys.length) {
+			keys = Arrays.copyOf(keys, chunkCount * 2);
+			chunks = Arrays.copyOf(chunks, chunkCount * 2);
+			cardinalities = Arrays.copyOf(cardinalities, chunkCount * 2);
+		}
+		System.arraycopy(keys, c, keys, c + 1, chunkCount - c);
+		System.arraycopy(chunks, c, chunks, c + 1, chunkCount - c);
+		System.arraycopy(cardinalities, c, cardinalities, c + 1, chunkCount - c);
+		keys[c] = high;
+		chunks[c] = new char[4];
+		cardinalities[c] = 0;
+		chunkCount++;
+	}
+
+	/**
+	 * @return the position of the chunk with the given high bits, or (-(insertion point) - 1)
+	 */
+	private int findChunk(char high) {
+		if (chunkCount > 0 && keys[chunkCount - 1] == high) {
+			return chunkCount - 1; //the common case - IDs are added in ascending order
+		}
+		return Arrays.binarySearch(keys, 0, chunkCount, high);
+	}
+
+	private static long[] toBitmap(char[] values, int count) {
+		long[] bits = new long[BITMAP_WORDS];
+		for (int i = 0; i < count; i++) {
+			bits[values[i] >>> 6] |= 1L << values[i];
+		}
+		return bits;
+	}
+
+	private static char[] toArray(long[] bits, int count) {
+		char[] values = new char[count];
+		int i = 0;
+		for (int w = 0; w < BITMAP_WORDS; w++) {
+			for (long word = bits[w]; word != 0; word &= word - 1) {
+				values[i++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+			}
+		}
+		return values;
+	}
+}
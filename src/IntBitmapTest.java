@@ -0,0 +1,70 @@
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class IntBitmapTest {
+	private IntBitmap bitmap;
+
+	@Before
+	public void buildUp(){
+		bitmap = new IntBitmap();
+	}
+
+	@Test
+	public void testAddAndContains(){
+		assertTrue(bitmap.add(7));
+		assertFalse(bitmap.add(7));
+		bitmap.add(3);
+		bitmap.add(1 << 20);
+		assertTrue(bitmap.contains(3));
+		assertTrue(bitmap.contains(1 << 20));
+		assertFalse(bitmap.contains(4));
+		assertArrayEquals(new int[] {3, 7, 1 << 20}, bitmap.toArray());
+	}
+
+	@Test
+	public void testRemove(){
+		bitmap.add(3);
+		bitmap.add(70000);
+		assertTrue(bitmap.remove(70000));
+		assertFalse(bitmap.remove(70000));
+		assertFalse(bitmap.contains(70000));
+		assertEquals(bitmap.size(), 1);
+	}
+
+	/**
+	 * Test that a chunk still works once it has too many values for an array and becomes a bitmap
+	 */
+	@Test
+	public void testFullChunk(){
+		for (int i = 0; i < 3 * IntBitmap.ARRAY_LIMIT; i += 2) {
+			bitmap.add(i);
+		}
+		assertEquals(bitmap.size(), 3 * IntBitmap.ARRAY_LIMIT / 2);
+		assertTrue(bitmap.contains(2 * IntBitmap.ARRAY_LIMIT));
+		assertFalse(bitmap.contains(2 * IntBitmap.ARRAY_LIMIT + 1));
+		assertEquals(bitmap.toArray()[IntBitmap.ARRAY_LIMIT], 2 * IntBitmap.ARRAY_LIMIT);
+	}
+
+	/**
+	 * Test intersecting array chunks with each other and with bitmap chunks
+	 */
+	@Test
+	public void testAnd(){
+		IntBitmap evens = new IntBitmap();
+		IntBitmap threes = new IntBitmap();
+		for (int i = 0; i < 3 * IntBitmap.ARRAY_LIMIT; i++) {
+			if (i % 2 == 0) {
+				evens.add(i);
+			}
+			if (i % 3 == 0) {
+				threes.add(i);
+			}
+		}
+		bitmap.add(6);
+		bitmap.add(9);
+		bitmap.add(100000);
+		assertArrayEquals(new int[] {6}, IntBitmap.and(bitmap, IntBitmap.and(evens, threes)).toArray());
+		assertEquals(IntBitmap.and(evens, threes).size(), IntBitmap.ARRAY_LIMIT / 2);
+	}
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * A map from meeting ID to Meeting, used by ContactManagerImpl to find meetings by ID in constant time.
+ * @author Sophie Koonin
+ * @see MeetingStore
+ *
+ * Keys are stored in a plain int array using open addressing with linear probing, so looking a meeting
+ * up does not box the ID or allocate anything. A slot is empty when its value is null. Meetings are never
+ * removed, only replaced (e.g. when a future meeting becomes a past meeting), so there are no tombstones.
+ */
+public class IntMeetingMap implements MeetingStore {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] keys;
+	private Meeting[] values;
+	private int size;
+
+	public IntMeetingMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize the number of meetings the map should hold without resizing
+	 */
+	public IntMeetingMap(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		keys = new int[capacity];
+		values = new Meeting[capacity];
+	}
+
+	/**
+	 * Returns the meeting with the given ID, or null if there is none.
+	 *
+	 * @param id the ID of the meeting
+	 * @return the meeting, or null
+	 */
+	public Meeting get(int id) {
+		int mask = keys.length - 1;
+		for (int i = slot(id, mask); values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == id) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	public boolean containsKey(int id) {
+		return get(id) != null;
+	}
+
+	/**
+	 * Stores a meeting under its ID, replacing any meeting that already had that ID.
+	 *
+	 * @param meeting the meeting to store
+	 * @throws NullPointerException if the meeting is null
+	 */
+	public void put(Meeting meeting) {
+		if (meeting == null) {
+			throw new NullPointerException();
+		}
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length << 1);
+		}
+		if (insert(keys, values, meeting.getId(), meeting)) {
+			size++;
+		}
+	}
+
+	/**
+	 * Adds notes in place to a PastMeetingImpl, or replaces a future meeting with a PastMeetingImpl
+	 * that shares its contacts.
+	 */
+	public void addNotes(int id, String notes) {
+		Meeting meeting = get(id);
+		if (meeting == null) {
+			throw new IllegalArgumentException();
+		}
+		if (meeting instanceof PastMeetingImpl) {
+			((PastMeetingImpl) meeting).addNotes(notes);
+		} else {
+			put(new PastMeetingImpl(id, meeting.getContacts(), MeetingImpl.timeOf(meeting), notes));
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * @return true if a new slot was filled, false if an existing meeting was replaced
+	 */
+	private static boolean insert(int[] keys, Meeting[] values, int id, Meeting meeting) {
+		int mask = keys.length - 1;
+		int i = slot(id, mask);
+		while (values[i] != null) {
+			if (keys[i] == id) {
+				values[i] = meeting;
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = id;
+		values[i] = meeting;
+		return true;
+	}
+
+	private void resize(int capacity) {
+		int[] newKeys = new int[capacity];
+		Meeting[] newValues = new Meeting[capacity];
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				insert(newKeys, newValues, keys[i], values[i]);
+			}
+		}
+		keys = newKeys;
+		values = newValues;
+	}
+
+	private static int slot(int id, int mask) {
+		int h = id * 0x9E3779B9; //spread sequential IDs across the table
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -0,0 +1,57 @@
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class IntMeetingMapTest {
+	private IntMeetingMap map;
+	private Set<Contact> contactSet;
+
+	@Before
+	public void buildUp(){
+		map = new IntMeetingMap();
+		contactSet = new HashSet<Contact>();
+		contactSet.add(new ContactImpl(1, "Alan", "Likes cheese"));
+	}
+
+	@Test
+	public void testGetMissingId(){
+		assertNull(map.get(7));
+	}
+
+	@Test
+	public void testPutAndGet(){
+		Meeting meet = new FutureMeetingImpl(7, contactSet, new GregorianCalendar(2016,3,4));
+		map.put(meet);
+		assertSame(map.get(7), meet);
+	}
+
+	/**
+	 * Test that putting a meeting with an existing ID replaces the old one
+	 */
+	@Test
+	public void testPutReplaces(){
+		map.put(new FutureMeetingImpl(7, contactSet, new GregorianCalendar(2016,3,4)));
+		Meeting pm = new PastMeetingImpl(7, contactSet, new GregorianCalendar(2013,3,4), "notes");
+		map.put(pm);
+		assertSame(map.get(7), pm);
+		assertEquals(map.size(), 1);
+	}
+
+	/**
+	 * Test that every meeting can still be found after the table has grown
+	 */
+	@Test
+	public void testResize(){
+		for (int i = 1; i <= 1000; i++) {
+			map.put(new FutureMeetingImpl(i, contactSet, new GregorianCalendar(2016,3,4)));
+		}
+		for (int i = 1; i <= 1000; i++) {
+			assertEquals(map.get(i).getId(), i);
+		}
+		assertNull(map.get(1001));
+	}
+}
@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, for reporting latency percentiles.
+ * @author Sophie Koonin
+ *
+ * As in HdrHistogram, the buckets are linear within each power of two: every power of two is split into
+ * SUB_BUCKETS buckets, so a value is recorded to within about 3% whatever its size, in a fixed array of
+ * counts. Recording is an index calculation and an atomic increment, and can be done from any thread.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+	private LongAdder count = new LongAdder();
+	private LongAdder total = new LongAdder();
+	private LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param nanos a duration; negative values are counted as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		total.add(value);
+		max.accumulate(value);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the mean of the recorded values, or 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total.sum() / n;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value that the given percentage of recorded values are at or below, to within the
+	 * precision of a bucket.
+	 *
+	 * @param percentile a percentage from 0 to 100
+	 * @return the lowest value in the bucket that reaches the percentile, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = count.sum();
+		long target = Math.max(1, (long) Math.ceil(n * Math.min(percentile, 100) / 100));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return lowestValueIn(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Values below SUB_BUCKETS have a bucket each; above that, the bucket is chosen by the highest
+	 * set bit and the SUB_BUCKET_BITS bits below it.
+	 */
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	static long lowestValueIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+	}
+}
@@ -0,0 +1,33 @@
+import java.util.Set;
+
+/**
+ * A past meeting read from a memory-mapped contact store, whose notes stay in the store until they are asked for.
+ * @see ContactStoreReader
+ */
+public class MappedPastMeetingImpl extends PastMeetingImpl {
+	private static final long serialVersionUID = 1L;
+
+	private transient ContactStoreReader.StringTable strings;
+	private int notesIndex;
+
+	MappedPastMeetingImpl(int id, Set<Contact> contacts, long time, ContactStoreReader.StringTable strings, int notesIndex) {
+		super(id, contacts, time, null);
+		this.strings = strings;
+		this.notesIndex = notesIndex;
+	}
+
+	@Override
+	String readNotes() {
+		String notes = super.readNotes();
+		return notes != null ? notes : strings.get(notesIndex); //null until notes have been added and joined
+	}
+
+	/**
+	 * Serializes as a plain PastMeetingImpl with its notes decoded, since the store they are read from isn't
+	 * serialized with it.
+	 */
+	private Object writeReplace() {
+		return new PastMeetingImpl(getId(), getContacts(), getTimeInMillis(), getNotes());
+	}
+
+}
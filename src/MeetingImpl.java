@@ -1,14 +1,44 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Set;
 
+/**
+ * Implementation of the Meeting interface.
+ * @author Sophie Koonin
+ *
+ * The date is held as a primitive count of milliseconds since the epoch rather than as a Calendar, which
+ * is much smaller and is compared and bucketed without any field calculations. getDate() builds a new
+ * Calendar in the default time zone on each call, so callers can't change the meeting's date through it;
+ * getInstant() and getLocalDateTime() give java.time views of the same moment.
+ *
+ * The participants are copied into a ParticipantSet, which can't be changed and so is shared, not copied
+ * again, when a future meeting becomes a past meeting.
+ */
 public class MeetingImpl implements Meeting, java.io.Serializable{
-	private Calendar meetingDate;
+	private long time;
 	private int id;
-	private Set<Contact> contactList;
+	private transient ParticipantSet contactList; //not serializable itself, so written as a plain list
 	
 	public MeetingImpl(int id, Set<Contact> contacts, Calendar date){
-		this.meetingDate = date;
-		this.contactList = contacts;
+		this(id, contacts, date.getTimeInMillis());
+	}
+
+	/**
+	 * @param id the ID of the meeting
+	 * @param contacts the participants
+	 * @param time the date of the meeting, in milliseconds since the epoch
+	 */
+	public MeetingImpl(int id, Set<Contact> contacts, long time){
+		this.time = time;
+		this.contactList = ParticipantSet.of(contacts);
 		//need to change this
 		this.id = id;
 	}
@@ -18,11 +48,59 @@ public class MeetingImpl implements Meeting, java.io.Serializable{
 	}
 
 	public Calendar getDate() {
-		return meetingDate;
+		Calendar date = new GregorianCalendar();
+		date.setTimeInMillis(time);
+		return date;
+	}
+
+	/**
+	 * @return the date of the meeting, in milliseconds since the epoch
+	 */
+	public long getTimeInMillis() {
+		return time;
+	}
+
+	public Instant getInstant() {
+		return Instant.ofEpochMilli(time);
+	}
+
+	/**
+	 * @return the date of the meeting in the default time zone, as getDate() would give it
+	 */
+	public LocalDateTime getLocalDateTime() {
+		return LocalDateTime.ofInstant(getInstant(), ZoneId.systemDefault());
 	}
 
 	public Set<Contact> getContacts() {
 		return contactList;
 	}
 
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeObject(new ArrayList<Contact>(contactList));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		contactList = ParticipantSet.of((List<Contact>) in.readObject());
+	}
+
+	/**
+	 * Returns the date of any meeting in milliseconds, without building a Calendar if it is a MeetingImpl or a view of a
+	 * ColumnarMeetingStore.
+	 *
+	 * @param meeting the meeting
+	 * @return the date of the meeting, in milliseconds since the epoch
+	 */
+	static long timeOf(Meeting meeting) {
+		if (meeting instanceof MeetingImpl) {
+			return ((MeetingImpl) meeting).time;
+		}
+		if (meeting instanceof ColumnarMeetingStore.MeetingView) {
+			return ((ColumnarMeetingStore.MeetingView) meeting).getTimeInMillis();
+		}
+		return meeting.getDate().getTimeInMillis();
+	}
+
 }
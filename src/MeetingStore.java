@@ -0,0 +1,44 @@
+/**
+ * Where ContactManagerImpl keeps its meetings, past and future, by ID.
+ * @author Sophie Koonin
+ * @see IntMeetingMap
+ * @see ColumnarMeetingStore
+ *
+ * The store holds the meetings themselves; the indexes by contact and by date only hold IDs and look the
+ * meetings up here. IntMeetingMap keeps a Meeting object per meeting, while ColumnarMeetingStore keeps
+ * their fields in primitive arrays and hands out views.
+ */
+public interface MeetingStore {
+
+	/**
+	 * Returns the meeting with the given ID, or null if there is none.
+	 *
+	 * @param id the ID of the meeting
+	 * @return the meeting, or null
+	 */
+	Meeting get(int id);
+
+	/**
+	 * Stores a meeting under its ID, replacing any meeting that already had that ID.
+	 *
+	 * @param meeting the meeting to store
+	 * @throws NullPointerException if the meeting is null
+	 */
+	void put(Meeting meeting);
+
+	/**
+	 * Adds notes to a meeting. A past meeting has them added after its existing notes, separated by
+	 * a comma, and a future meeting becomes a past meeting, with the same ID, contacts and date, that
+	 * has these notes.
+	 *
+	 * @param id the ID of the meeting
+	 * @param notes the notes to add
+	 * @throws IllegalArgumentException if there is no meeting with that ID
+	 */
+	void addNotes(int id, String notes);
+
+	/**
+	 * @return the number of meetings in the store
+	 */
+	int size();
+}
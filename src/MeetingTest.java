@@ -34,6 +34,13 @@ public class MeetingTest {
 		assertEquals(newCal.get(newCal.YEAR),2011);
 	}
 
+	@Test
+	public void testGetDateIsACopy(){
+		meet.getDate().set(Calendar.YEAR, 1999);
+		assertEquals(meet.getDate().get(Calendar.YEAR), 2011);
+		assertEquals(((MeetingImpl) meet).getInstant().toEpochMilli(), new GregorianCalendar(2011,11,01).getTimeInMillis());
+	}
+
 	@Test
 	public void testGetContacts(){
 		Set<Contact> newSet = meet.getContacts();
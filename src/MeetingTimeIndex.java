@@ -0,0 +1,182 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An index of meetings by date.
+ * @author Sophie Koonin
+ * @see MeetingTimeline
+ *
+ * Meetings are bucketed by day (counted from the epoch, in the default time zone), and each day holds a MeetingTimeline in chronological order. Finding the meetings on a day
+ * is a single lookup in a sorted map, and the meetings between two dates are streamed from the buckets in
+ * between, without touching anything outside the range.
+ */
+public class MeetingTimeIndex {
+
+	private NavigableMap<Long, MeetingTimeline> days = new TreeMap<Long, MeetingTimeline>();
+
+	public void add(Meeting meeting) {
+		long time = MeetingImpl.timeOf(meeting);
+		days.computeIfAbsent(epochDay(time), k -> new MeetingTimeline()).add(time, meeting.getId());
+	}
+
+	/**
+	 * Adds many meetings, in any order, appending each to its day and then sorting every day once.
+	 *
+	 * @param meetings the meetings to add
+	 */
+	public void addAll(Collection<? extends Meeting> meetings) {
+		for (Meeting meeting : meetings) {
+			long time = MeetingImpl.timeOf(meeting);
+			days.computeIfAbsent(epochDay(time), k -> new MeetingTimeline()).append(time, meeting.getId());
+		}
+		days.values().forEach(MeetingTimeline::sort);
+	}
+
+	public void remove(Meeting meeting) {
+		long time = MeetingImpl.timeOf(meeting);
+		long day = epochDay(time);
+		MeetingTimeline timeline = days.get(day);
+		if (timeline != null) {
+			timeline.remove(time, meeting.getId());
+			if (timeline.isEmpty()) {
+				days.remove(day);
+			}
+		}
+	}
+
+	/**
+	 * Returns the meetings held on the same day as the given date, in chronological order.
+	 *
+	 * @param date any time on the day
+	 * @return the meetings on that day, or null if there are none
+	 */
+	public MeetingTimeline getDay(Calendar date) {
+		return days.get(epochDay(date));
+	}
+
+	/**
+	 * Returns the meetings on the earliest day in the index, the first of which is the earliest meeting.
+	 *
+	 * @return the earliest day's meetings, or null if the index is empty
+	 */
+	public MeetingTimeline first() {
+		Map.Entry<Long, MeetingTimeline> first = days.firstEntry();
+		return first == null ? null : first.getValue();
+	}
+
+	/**
+	 * Streams the IDs of the meetings in one or more indexes that are held from one date up to (but
+	 * not including) another, in chronological order.
+	 *
+	 * The stream reads the indexes as it goes, one day at a time, so it only ever holds a single day's
+	 * meetings. The indexes must not be changed until the stream has been used.
+	 *
+	 * @param from the start of the range, or null for no start
+	 * @param to the end of the range, or null for no end
+	 * @param indexes the indexes to read
+	 * @return the meeting IDs, which are empty if to is not after from
+	 */
+	static IntStream stream(Calendar from, Calendar to, MeetingTimeIndex... indexes) {
+		long fromMillis = from == null ? Long.MIN_VALUE : from.getTimeInMillis();
+		long toMillis = to == null ? Long.MAX_VALUE : to.getTimeInMillis();
+		if (fromMillis >= toMillis) {
+			return IntStream.empty();
+		}
+		List<PeekingIterator> dayIterators = new ArrayList<PeekingIterator>(indexes.length);
+		for (MeetingTimeIndex index : indexes) {
+			NavigableMap<Long, MeetingTimeline> range = index.days;
+			if (from != null) {
+				range = range.tailMap(epochDay(from), true);
+			}
+			if (to != null) {
+				range = range.headMap(epochDay(to), true);
+			}
+			dayIterators.add(new PeekingIterator(range.entrySet().iterator()));
+		}
+
+		return StreamSupport.intStream(new Spliterators.AbstractIntSpliterator(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.DISTINCT) {
+			private MeetingTimeline day = new MeetingTimeline(); //the meetings of the day being streamed
+			private int position;
+
+			@Override
+			public boolean tryAdvance(IntConsumer action) {
+				while (position == day.size()) {
+					if (!nextDay()) {
+						return false;
+					}
+				}
+				action.accept(day.getId(position++));
+				return true;
+			}
+
+			/**
+			 * Merges the meetings of the next day in any of the indexes into a new timeline.
+			 */
+			private boolean nextDay() {
+				long next = Long.MAX_VALUE;
+				boolean found = false;
+				for (PeekingIterator it : dayIterators) {
+					if (it.peek() != null && it.peek().getKey() <= next) {
+						next = it.peek().getKey();
+						found = true;
+					}
+				}
+				if (!found) {
+					return false;
+				}
+				day = new MeetingTimeline();
+				position = 0;
+				for (PeekingIterator it : dayIterators) {
+					if (it.peek() != null && it.peek().getKey() == next) {
+						MeetingTimeline timeline = it.next().getValue();
+						for (int i = timeline.indexAtOrAfter(fromMillis); i < timeline.size() && timeline.getTime(i) < toMillis; i++) {
+							day.add(timeline.getTime(i), timeline.getId(i));
+						}
+					}
+				}
+				return true;
+			}
+		}, false);
+	}
+
+	/**
+	 * An iterator over a range of days that can look at the next day without moving past it.
+	 */
+	private static class PeekingIterator {
+		private Iterator<Map.Entry<Long, MeetingTimeline>> it;
+		private Map.Entry<Long, MeetingTimeline> next;
+
+		PeekingIterator(Iterator<Map.Entry<Long, MeetingTimeline>> it) {
+			this.it = it;
+			next = it.hasNext() ? it.next() : null;
+		}
+
+		Map.Entry<Long, MeetingTimeline> peek() {
+			return next;
+		}
+
+		Map.Entry<Long, MeetingTimeline> next() {
+			Map.Entry<Long, MeetingTimeline> result = next;
+			next = it.hasNext() ? it.next() : null;
+			return result;
+		}
+	}
+
+	/**
+	 * @return the number of days since 1 January 1970 of the date's year, month and day
+	 */
+	static long epochDay(Calendar date) {
+		return LocalDate.of(date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1, date.get(Calendar.DAY_OF_MONTH)).toEpochDay();
+	}
+
+	/**
+	 * @return the number of days since 1 January 1970 of the given time's date in the default time zone,
+	 * which is the day a Calendar for that time would give
+	 */
+	static long epochDay(long time) {
+		return Math.floorDiv(time + TimeZone.getDefault().getOffset(time), 86400000L);
+	}
+}
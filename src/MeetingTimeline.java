@@ -0,0 +1,209 @@
+import java.util.Arrays;
+
+/**
+ * A chronologically ordered set of meeting IDs.
+ * @author Sophie Koonin
+ *
+ * Each entry is a meeting's date (in milliseconds) and its ID, kept sorted by date and then by ID in two
+ * parallel primitive arrays. Meetings are usually added in date order, in which case adding is just an
+ * append; otherwise the later entries are shifted up to make room. That is quadratic for many meetings
+ * out of order, so a timeline built from many meetings at once has them appended as they come and then
+ * sorted once.
+ */
+public class MeetingTimeline {
+
+	private long[] times;
+	private int[] ids;
+	private int size;
+
+	public MeetingTimeline() {
+		times = new long[4];
+		ids = new int[4];
+	}
+
+	/**
+	 * Adds a meeting, unless it is already in the timeline.
+	 *
+	 * @param time the date of the meeting, in milliseconds
+	 * @param id the ID of the meeting
+	 */
+	public void add(long time, int id) {
+		int i = search(time, id);
+		if (i >= 0) {
+			return;
+		}
+		i = -(i + 1);
+		if (size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			ids = Arrays.copyOf(ids, size * 2);
+		}
+		System.arraycopy(times, i, times, i + 1, size - i);
+		System.arraycopy(ids, i, ids, i + 1, size - i);
+		times[i] = time;
+		ids[i] = id;
+		size++;
+	}
+
+	/**
+	 * Adds a meeting at the end without keeping the timeline in order, for building it from many meetings
+	 * at once. sort() must be called before the timeline is used.
+	 *
+	 * @param time the date of the meeting, in milliseconds
+	 * @param id the ID of the meeting
+	 */
+	void append(long time, int id) {
+		if (size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			ids = Arrays.copyOf(ids, size * 2);
+		}
+		times[size] = time;
+		ids[size] = id;
+		size++;
+	}
+
+	/**
+	 * Puts the meetings added by append() into chronological order, dropping any added more than once.
+	 * The two arrays are merge sorted together, bottom up, so nothing is boxed.
+	 */
+	void sort() {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; i++) {
+			sorted = before(times[i - 1], ids[i - 1], times[i], ids[i]);
+		}
+		if (sorted) {
+			return; //the common case - appended in date order
+		}
+		long[] fromTimes = times;
+		int[] fromIds = ids;
+		long[] toTimes = new long[times.length];
+		int[] toIds = new int[ids.length];
+		for (int width = 1; width < size; width *= 2) {
+			for (int low = 0; low < size; low += 2 * width) {
+				int mid = Math.min(low + width, size);
+				int high = Math.min(low + 2 * width, size);
+				for (int i = low, j = mid, k = low; k < high; k++) {
+					if (j >= high || (i < mid && !before(fromTimes[j], fromIds[j], fromTimes[i], fromIds[i]))) {
+						toTimes[k] = fromTimes[i];
+						toIds[k] = fromIds[i++];
+					} else {
+						toTimes[k] = fromTimes[j];
+						toIds[k] = fromIds[j++];
+					}
+				}
+			}
+			long[] swapTimes = fromTimes;
+			fromTimes = toTimes;
+			toTimes = swapTimes;
+			int[] swapIds = fromIds;
+			fromIds = toIds;
+			toIds = swapIds;
+		}
+		times = fromTimes;
+		ids = fromIds;
+		int kept = 1;
+		for (int i = 1; i < size; i++) {
+			if (times[i] != times[kept - 1] || ids[i] != ids[kept - 1]) {
+				times[kept] = times[i];
+				ids[kept++] = ids[i];
+			}
+		}
+		size = kept;
+	}
+
+	private static boolean before(long time1, int id1, long time2, int id2) {
+		return time1 < time2 || (time1 == time2 && id1 < id2);
+	}
+
+	/**
+	 * Removes a meeting, if it is in the timeline.
+	 *
+	 * @param time the date of the meeting, in milliseconds
+	 * @param id the ID of the meeting
+	 * @return true if the meeting was removed
+	 */
+	public boolean remove(long time, int id) {
+		int i = search(time, id);
+		if (i < 0) {
+			return false;
+		}
+		System.arraycopy(times, i + 1, times, i, size - i - 1);
+		System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+		size--;
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param index a position in the timeline, from 0 (the earliest meeting) to size() - 1
+	 * @return the ID of the meeting at that position
+	 */
+	public int getId(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return ids[index];
+	}
+
+	/**
+	 * @param index a position in the timeline, from 0 (the earliest meeting) to size() - 1
+	 * @return the date of the meeting at that position, in milliseconds
+	 */
+	public long getTime(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return times[index];
+	}
+
+	/**
+	 * Returns the position of the first meeting at or after the given time.
+	 *
+	 * @param time a date in milliseconds
+	 * @return the index of the first such meeting, or size() if there is none
+	 */
+	public int indexAtOrAfter(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Binary search for an entry, in the style of Arrays.binarySearch.
+	 *
+	 * @return the index of the entry, or (-(insertion point) - 1) if it is not in the timeline
+	 */
+	private int search(long time, int id) {
+		int low = 0;
+		int high = size - 1;
+		if (size > 0 && (times[high] < time || (times[high] == time && ids[high] < id))) {
+			return -(size + 1); //the common case - later than everything already here
+		}
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = times[mid] != time ? Long.compare(times[mid], time) : Integer.compare(ids[mid], id);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+}
@@ -0,0 +1,67 @@
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class MeetingTimelineTest {
+	private MeetingTimeline timeline;
+
+	@Before
+	public void buildUp(){
+		timeline = new MeetingTimeline();
+		timeline.add(300L, 1);
+		timeline.add(100L, 2);
+		timeline.add(200L, 3);
+	}
+
+	@Test
+	public void testChronologicalOrder(){
+		assertEquals(timeline.getId(0), 2);
+		assertEquals(timeline.getId(1), 3);
+		assertEquals(timeline.getId(2), 1);
+	}
+
+	/**
+	 * Test that meetings at the same time are ordered by ID
+	 */
+	@Test
+	public void testSameTimeOrderedById(){
+		timeline.add(200L, 9);
+		timeline.add(200L, 5);
+		assertEquals(timeline.getId(2), 5);
+		assertEquals(timeline.getId(3), 9);
+	}
+
+	@Test
+	public void testNoDuplicates(){
+		timeline.add(200L, 3);
+		assertEquals(timeline.size(), 3);
+	}
+
+	@Test
+	public void testRemove(){
+		assertTrue(timeline.remove(200L, 3));
+		assertFalse(timeline.remove(200L, 3));
+		assertEquals(timeline.size(), 2);
+		assertEquals(timeline.getId(1), 1);
+	}
+
+	/**
+	 * Test that meetings appended out of order are put in order, once each, by sort()
+	 */
+	@Test
+	public void testAppendAndSort(){
+		MeetingTimeline appended = new MeetingTimeline();
+		for (int i = 1000; i >= 1; i--) {
+			appended.append(i % 10, i);
+		}
+		appended.append(5L, 5);
+		appended.sort();
+		assertEquals(appended.size(), 1000);
+		for (int i = 1; i < appended.size(); i++) {
+			assertTrue(appended.getTime(i - 1) < appended.getTime(i)
+					|| (appended.getTime(i - 1) == appended.getTime(i) && appended.getId(i - 1) < appended.getId(i)));
+		}
+		assertEquals(appended.getId(0), 10);
+		assertEquals(appended.getTime(999), 9L);
+	}
+}
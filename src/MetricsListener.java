@@ -0,0 +1,54 @@
+/**
+ * Receives measurements from a ContactManagerImpl, once set with setMetricsListener().
+ * @author Sophie Koonin
+ * @see ContactManagerMetrics
+ *
+ * Every method does nothing by default, so a listener only needs to implement the ones it cares about.
+ * The methods are called on the thread doing the work, in the middle of it, so they should be quick.
+ */
+public interface MetricsListener {
+
+	/**
+	 * Called when an operation returns normally.
+	 *
+	 * @param operation the name of the operation, e.g. "getMeeting" or "getContacts(String)"
+	 * @param nanos how long it took, in nanoseconds
+	 */
+	default void operationCompleted(String operation, long nanos) {
+	}
+
+	/**
+	 * Called when a record has been appended to the journal.
+	 *
+	 * @param bytes the size of the record
+	 * @param nanos how long writing it took, including any sync, in nanoseconds
+	 */
+	default void journalRecordWritten(int bytes, long nanos) {
+	}
+
+	/**
+	 * Called when a snapshot has been written and has replaced the previous one.
+	 *
+	 * @param bytes the size of the snapshot
+	 * @param nanos how long writing it took, in nanoseconds
+	 */
+	default void snapshotWritten(long bytes, long nanos) {
+	}
+
+	/**
+	 * Called after looking something up in an index.
+	 *
+	 * @param index "meetings" for meetings by ID, "contacts" for contacts by ID, or "names" for name searches
+	 * @param hit true if anything was found
+	 */
+	default void indexLookup(String index, boolean hit) {
+	}
+
+	/**
+	 * Called with the time the ContactManagerImpl took to load its snapshot and replay its journal.
+	 *
+	 * @param nanos the load time, in nanoseconds
+	 */
+	default void loaded(long nanos) {
+	}
+}
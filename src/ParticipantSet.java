@@ -0,0 +1,85 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * The participants of a meeting: an unmodifiable set of contacts, indexed by a bitmap of their IDs.
+ * @author Sophie Koonin
+ * @see IntBitmap
+ *
+ * The contacts are kept in an array in order of ID, alongside an IntBitmap of the IDs. contains() tests
+ * the contact's bit first, so a contact who isn't in the meeting is turned away without comparing names
+ * and notes, and getIds() lets callers combine participant lists with bitwise operations instead of
+ * building sets of contacts.
+ */
+public class ParticipantSet extends AbstractSet<Contact> {
+
+	private Contact[] contacts;
+	private IntBitmap ids = new IntBitmap();
+
+	private ParticipantSet(Collection<Contact> participants) {
+		contacts = new Contact[participants.size()];
+		int n = 0;
+		for (Contact c : participants) {
+			if (ids.add(c.getId())) {
+				contacts[n++] = c;
+			}
+		}
+		contacts = Arrays.copyOf(contacts, n);
+		Arrays.sort(contacts, (c1, c2) -> Integer.compare(c1.getId(), c2.getId()));
+	}
+
+	/**
+	 * Returns the given contacts as a ParticipantSet. A contact with the same ID as an earlier one is
+	 * left out.
+	 *
+	 * @param participants the contacts
+	 * @return the participants themselves if they are already a ParticipantSet, otherwise a copy
+	 */
+	public static ParticipantSet of(Collection<Contact> participants) {
+		if (participants instanceof ParticipantSet) {
+			return (ParticipantSet) participants; //it can't be changed, so it can be shared
+		}
+		return new ParticipantSet(participants);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof Contact)) {
+			return false;
+		}
+		int id = ((Contact) o).getId();
+		if (!ids.contains(id)) {
+			return false;
+		}
+		int low = 0;
+		int high = contacts.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (contacts[mid].getId() < id) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return contacts[low].equals(o);
+	}
+
+	@Override
+	public Iterator<Contact> iterator() {
+		return Arrays.asList(contacts).iterator(); //in order of ID, and without remove()
+	}
+
+	@Override
+	public int size() {
+		return contacts.length;
+	}
+
+	/**
+	 * @return the participants' contact IDs, which must not be changed
+	 */
+	public IntBitmap getIds() {
+		return ids;
+	}
+}
@@ -1,15 +1,55 @@
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Set;
 
 public class PastMeetingImpl extends MeetingImpl implements PastMeeting, java.io.Serializable{
 	private String notes;
+	private List<String> addedNotes; //notes added since getNotes() last joined them, or null if there are none
 
 	public PastMeetingImpl(int id, Set<Contact> contacts, Calendar date, String notes){
 		super(id, contacts,date);
 		this.notes = notes;
 	}
+
+	public PastMeetingImpl(int id, Set<Contact> contacts, long time, String notes){
+		super(id, contacts, time);
+		this.notes = notes;
+	}
 	
-	public String getNotes() {
+	public synchronized String getNotes() {
+		if (addedNotes != null) {
+			//join the added notes on to the old ones once, rather than every time notes are added
+			StringBuilder joined = new StringBuilder(readNotes());
+			for (String note : addedNotes) {
+				if (joined.length() > 0) {
+					joined.append(", "); //no separator in front of the first notes of a meeting that had none
+				}
+				joined.append(note);
+			}
+			notes = joined.toString();
+			addedNotes = null;
+		}
+		return readNotes();
+	}
+
+	/**
+	 * Adds notes after the existing ones, separated by a comma if there are any. Only the new notes are stored, so
+	 * this takes the same time however long the existing notes are.
+	 *
+	 * @param note the notes to add
+	 */
+	synchronized void addNotes(String note) {
+		if (addedNotes == null) {
+			addedNotes = new ArrayList<String>(2);
+		}
+		addedNotes.add(note);
+	}
+
+	/**
+	 * Returns the notes without any added since they were last joined.
+	 */
+	String readNotes() {
 		return notes;
 	}
 
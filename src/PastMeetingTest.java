@@ -44,4 +44,14 @@ public class PastMeetingTest {
 	public void testGetNotes(){
 		assertEquals(pm.getNotes(), "Meeting notes");
 	}
+
+	@Test
+	public void testAddNotes(){
+		PastMeetingImpl pmi = (PastMeetingImpl) pm;
+		pmi.addNotes("follow-up");
+		pmi.addNotes("rescheduled");
+		assertEquals(pm.getNotes(), "Meeting notes, follow-up, rescheduled");
+		pmi.addNotes("cancelled");
+		assertEquals(pm.getNotes(), "Meeting notes, follow-up, rescheduled, cancelled");
+	}
 }